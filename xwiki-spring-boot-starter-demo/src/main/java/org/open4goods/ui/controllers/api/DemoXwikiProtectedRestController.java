@@ -119,10 +119,9 @@ public class DemoXwikiProtectedRestController {
 			summary = "Operation to fetch a list of Page", 
 			description = "Fetch all Pages belonging to a space."
 					+ "<br>Heavy process because it needs to scan all PageSummary belonging to a space and then creates a Page object from each PageSummary."
-					+ "<br>Furthermore, for each Page this process requests the server in order to fetch attachments and objects belonging to this Page."
-					+ "<br>Up to 3 requests for each generated Page."
-					+ "<br>Note: A XWiki Page does not provide a field for properties !!!!"
-					+ "<br>TODO: fetch classes to Page")
+					+ "<br>Attachments, objects and class are embedded in the Page response (xwiki.fetch.page-mode=SINGLE_REQUEST, default): 1 request for each generated Page."
+					+ "<br>With xwiki.fetch.page-mode=PER_FIELD, attachments and objects are fetched separately: up to 3 requests for each generated Page."
+					+ "<br>Note: A XWiki Page does not provide a field for properties !!!!")
 	
 	@GetMapping( "/pageList/spaces/{spaces:.+}" )
 	public List<Page> getPageList( @PathVariable("spaces") String spaces ){
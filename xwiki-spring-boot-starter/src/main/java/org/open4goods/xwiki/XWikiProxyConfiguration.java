@@ -0,0 +1,50 @@
+package org.open4goods.xwiki;
+
+import java.io.IOException;
+
+import org.open4goods.xwiki.cache.XWikiAttachmentDiskCache;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.proxy.XWikiAttachmentProxyController;
+import org.open4goods.xwiki.services.XwikiFacadeService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Optional /wiki-files attachments proxy, enabled with xwiki.proxy.enabled=true
+ * 
+ * @author Thierry.Ledan
+ */
+@AutoConfiguration(after = XWikiServiceConfiguration.class)
+@ConditionalOnWebApplication(type = Type.SERVLET)
+@ConditionalOnProperty(prefix = "xwiki.proxy", name = "enabled", havingValue = "true")
+public class XWikiProxyConfiguration {
+
+	@Bean( name = "xwikiAttachmentProxyController" )
+	@ConditionalOnMissingBean( name = "xwikiAttachmentProxyController" )
+	XWikiAttachmentProxyController xwikiAttachmentProxyController(
+			@Qualifier("xwikiFacadeService") XwikiFacadeService facadeService,
+			@Qualifier("xwikiAttachmentDiskCache") ObjectProvider<XWikiAttachmentDiskCache> diskCache,
+			XWikiServiceProperties properties
+			) {
+		return new XWikiAttachmentProxyController(facadeService, properties.getProxy(), diskCache.getIfAvailable(), properties.getApiWiki());
+	}
+	
+	/**
+	 * Attachments stored on disk, enabled with xwiki.cache.attachments.enabled=true
+	 * 
+	 * @param properties
+	 * @return
+	 * @throws IOException if the store directory can not be created
+	 */
+	@Bean( name = "xwikiAttachmentDiskCache", destroyMethod = "close" )
+	@ConditionalOnProperty(prefix = "xwiki.cache.attachments", name = "enabled", havingValue = "true")
+	XWikiAttachmentDiskCache xwikiAttachmentDiskCache(XWikiServiceProperties properties) throws IOException {
+		return new XWikiAttachmentDiskCache(properties.getCache().getAttachments());
+	}
+}
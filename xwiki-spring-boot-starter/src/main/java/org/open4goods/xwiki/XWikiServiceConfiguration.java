@@ -1,26 +1,65 @@
 package org.open4goods.xwiki;
 
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.open4goods.xwiki.authentication.XWikiAuthenticationCache;
+import org.open4goods.xwiki.authentication.XWikiGroupResolver;
+import org.open4goods.xwiki.authentication.XWikiSessionAuthenticator;
 import org.open4goods.xwiki.authentication.XwikiAuthenticationProvider;
+import org.open4goods.xwiki.cache.XWikiCacheKeyGenerator;
+import org.open4goods.xwiki.cache.XWikiCacheResolver;
+import org.open4goods.xwiki.cache.XWikiRevalidationCache;
+import org.open4goods.xwiki.config.XWikiCacheProperties.AuthenticationCacheSpec;
 import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiFetchProperties;
+import org.open4goods.xwiki.config.XWikiHttpProperties;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
 import org.open4goods.xwiki.services.XwikiMappingService;
+import org.open4goods.xwiki.html.XWikiHtmlRewriter;
+import org.open4goods.xwiki.html.XWikiHtmlRewriterChain;
 import org.open4goods.xwiki.services.RestTemplateService;
 import org.open4goods.xwiki.services.XWikiAuthenticationService;
 import org.open4goods.xwiki.services.XWikiHtmlService;
 import org.open4goods.xwiki.services.XWikiObjectService;
+import org.open4goods.xwiki.services.XWikiParallelExecutor;
+import org.open4goods.xwiki.services.XWikiDirectoryService;
+import org.open4goods.xwiki.services.XWikiMetrics;
 import org.open4goods.xwiki.services.XWikiReadService;
+import org.open4goods.xwiki.services.XWikiRenderingService;
+import org.open4goods.xwiki.services.XWikiRequestCoalescer;
 import org.open4goods.xwiki.services.XwikiFacadeService;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 /**
  * This Configuration class handles :
  * 		xwiki services Beans
@@ -58,9 +97,63 @@ public class XWikiServiceConfiguration {
 										  @Autowired XwikiMappingService mappingService,
 										  @Autowired XWikiReadService xWikiReadService,
 										  @Autowired XWikiHtmlService xWikiHtmlService,
-										  @Autowired XWikiObjectService xWikiObjectService) {
+										  @Autowired XWikiObjectService xWikiObjectService,
+										  @Autowired @Qualifier("xwikiParallelExecutor") XWikiParallelExecutor parallelExecutor) {
 		logger.info("Creating xwikiFacadeservice");
-		return new XwikiFacadeService(mappingService, xWikiObjectService, xWikiHtmlService, xWikiReadService, xWikiObjectService, xWikiHtmlService, xWikiProperties);
+		return new XwikiFacadeService(mappingService, xWikiObjectService, xWikiHtmlService, xWikiReadService, xWikiObjectService, xWikiHtmlService, parallelExecutor, xWikiProperties);
+	}
+	
+	/**
+	 * Pooled http client shared by the rest, web and login templates
+	 * Keep-alive connections are reused, so requests do not pay a new tcp/tls handshake
+	 * 
+	 * @return
+	 */
+	@Bean( name = "xwikiHttpClient" )
+	CloseableHttpClient xwikiHttpClient() {
+		
+		XWikiHttpProperties http = xWikiProperties.getHttp();
+		
+		ConnectionConfig connectionConfig = ConnectionConfig.custom()
+				.setConnectTimeout(Timeout.of(http.getConnectTimeout()))
+				.setSocketTimeout(Timeout.of(http.getReadTimeout()))
+				.build();
+		
+		PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+				.setMaxConnTotal(http.getMaxConnections())
+				.setMaxConnPerRoute(http.getMaxConnectionsPerRoute())
+				.setDefaultConnectionConfig(connectionConfig)
+				.build();
+		
+		// keep-alive is used when the server does not send a Keep-Alive header
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectionRequestTimeout(Timeout.of(http.getConnectionRequestTimeout()))
+				.setResponseTimeout(Timeout.of(http.getReadTimeout()))
+				.setConnectionKeepAlive(TimeValue.of(http.getKeepAlive()))
+				.build();
+		
+		CloseableHttpClient httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				// pool is shared between users (login), cookies must not leak from a request to another
+				.disableCookieManagement()
+				.evictExpiredConnections()
+				.evictIdleConnections(TimeValue.of(http.getIdleEviction()))
+				.build();
+		
+		logger.info("Pooled http client created - max connections:{} - max per route:{}", http.getMaxConnections(), http.getMaxConnectionsPerRoute());
+		return httpClient;
+	}
+	
+	/**
+	 * Request factory backed by the pooled http client
+	 * 
+	 * @param httpClient
+	 * @return
+	 */
+	@Bean( name = "xwikiRequestFactory" )
+	ClientHttpRequestFactory xwikiRequestFactory(@Qualifier("xwikiHttpClient") CloseableHttpClient httpClient) {
+		return new HttpComponentsClientHttpRequestFactory(httpClient);
 	}
 	
 	/**
@@ -70,7 +163,7 @@ public class XWikiServiceConfiguration {
 	 * @return
 	 */
 	@Bean( name = "restTemplate" )
-	RestTemplate restTemplate(RestTemplateBuilder builder) {
+	RestTemplate restTemplate(RestTemplateBuilder builder, @Qualifier("xwikiRequestFactory") ClientHttpRequestFactory requestFactory) {
 	
 		
 		//TOODO : WTF : If resttemplate is build from builder, authentication does not works ! (global or by header in the services)
@@ -79,7 +172,7 @@ public class XWikiServiceConfiguration {
 //				.build();
 		//restTemplate.setUriTemplateHandler(new DefaultUriBuilderFactory(xWikiProperties.getApiEntrypoint()));
 //		logger.info("RestTemplate created with basic authentication to request XWIKI RESTFUL API SERVER");
-		return new RestTemplate();
+		return new RestTemplate(requestFactory);
 	}
 
 	/**
@@ -88,11 +181,12 @@ public class XWikiServiceConfiguration {
 	 * @return
 	 */
 	@Bean( name = "webTemplate" )
-	RestTemplate webTemplate(RestTemplateBuilder builder) {
+	RestTemplate webTemplate(RestTemplateBuilder builder, @Qualifier("xwikiRequestFactory") ClientHttpRequestFactory requestFactory) {
 		
 		RestTemplate webTemplate =  
 				builder
 //					.basicAuthentication(xWikiProperties.getUsername(), xWikiProperties.getPassword())
+					.requestFactory(() -> requestFactory)
 					.defaultHeader("accept", "text/html ").
 				build();
 		
@@ -115,18 +209,54 @@ public class XWikiServiceConfiguration {
 	@Bean( "restTemplateService" )
 	RestTemplateService getRestTemplateService( 
 			@Qualifier("restTemplate") RestTemplate restTemplate, 
-			@Qualifier("webTemplate") RestTemplate webTemplate
+			@Qualifier("webTemplate") RestTemplate webTemplate,
+			@Qualifier("xwikiMetrics") XWikiMetrics metrics,
+			ObjectProvider<MeterRegistry> meterRegistry
 			) {
 		
 		RestTemplateService restTemplateService = null;
 		try {
-			restTemplateService = new RestTemplateService(restTemplate, webTemplate, xWikiProperties);
+			MeterRegistry registry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+			XWikiRequestCoalescer coalescer = new XWikiRequestCoalescer(xWikiProperties.getHttp().getMaxInFlight(), registry);
+			XWikiRevalidationCache revalidationCache = new XWikiRevalidationCache(xWikiProperties.getCache().getRevalidation(), registry);
+			XWikiSessionAuthenticator sessionAuthenticator = null;
+			if(xWikiProperties.getAuthentication().isSession()) {
+				// login form posted without following the redirection, to read the session cookies
+				SimpleClientHttpRequestFactory loginRequestFactory = new SimpleClientHttpRequestFactory();
+				loginRequestFactory.setConnectTimeout(xWikiProperties.getHttp().getConnectTimeout());
+				loginRequestFactory.setReadTimeout(xWikiProperties.getHttp().getReadTimeout());
+				sessionAuthenticator = new XWikiSessionAuthenticator(new RestTemplate(loginRequestFactory), xWikiProperties, metrics, Clock.systemUTC());
+			}
+			restTemplateService = new RestTemplateService(restTemplate, webTemplate, coalescer, revalidationCache, sessionAuthenticator, metrics, xWikiProperties);
 		} catch(Exception e) {
 			  logger.error("Unable to create RestTemplateService as bean. error message {}", e.getMessage());
 		}
 		return restTemplateService;
 	}
 	
+	/**
+	 * Meters of the xwiki calls (requests, deserialization, html extraction), on the application registry
+	 * 
+	 * @param meterRegistry
+	 * @return
+	 */
+	@Bean( "xwikiMetrics" )
+	XWikiMetrics xwikiMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new XWikiMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+	}
+	
+	/**
+	 * Shared json readers (one per xwiki model type)
+	 * Can be overridden by declaring an 'xwikiJsonReaders' bean with a customized ObjectMapper
+	 * 
+	 * @return
+	 */
+	@Bean( "xwikiJsonReaders" )
+	@ConditionalOnMissingBean( name = "xwikiJsonReaders" )
+	XwikiJsonReaders xwikiJsonReaders() {
+		return new XwikiJsonReaders();
+	}
+	
 	/**
 	 * xwiki objects mapping 
 	 * 
@@ -135,18 +265,73 @@ public class XWikiServiceConfiguration {
 	 */
 	@Bean( "mappingService" )
 	XwikiMappingService getMappingervice( 
-			@Qualifier("restTemplateService") RestTemplateService restTemplateService
+			@Qualifier("restTemplateService") RestTemplateService restTemplateService,
+			@Qualifier("xwikiJsonReaders") XwikiJsonReaders jsonReaders,
+			@Qualifier("xwikiMetrics") XWikiMetrics metrics
 			) {
 		
 		XwikiMappingService mappingService = null;
 		try {
-			mappingService = new XwikiMappingService(restTemplateService, xWikiProperties);
+			mappingService = new XwikiMappingService(restTemplateService, jsonReaders, metrics, xWikiProperties);
 		} catch(Exception e) {
 			  logger.error("Unable to create MappingService as bean. error message {}", e.getMessage());
 		}
 		return mappingService;
 	}	
 	
+	/**
+	 * Parallel requests (multi-page reads), bounded to xwiki.fetch.max-concurrency
+	 * Runs on virtual threads by default. Declare an 'xwikiParallelExecutor' bean to use another executor
+	 * (the executor is not exposed as a bean, it would replace the application task executor)
+	 * 
+	 * @return
+	 */
+	@Bean( name = "xwikiParallelExecutor", destroyMethod = "shutdown" )
+	@ConditionalOnMissingBean( name = "xwikiParallelExecutor" )
+	XWikiParallelExecutor xwikiParallelExecutor() {
+		XWikiFetchProperties fetch = xWikiProperties.getFetch();
+		ExecutorService executor = fetch.isVirtualThreads()
+				? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("xwiki-fetch-", 0).factory())
+				: Executors.newFixedThreadPool(Math.max(1, fetch.getMaxConcurrency()));
+		return new XWikiParallelExecutor(executor, fetch.getMaxConcurrency());
+	}
+	
+	/**
+	 * Caches of the services (pages, page lists, properties, html, groups), configured under xwiki.cache
+	 * (resolved by the services themselves, no cache manager is exposed as a bean)
+	 * 
+	 * @return
+	 */
+	@Bean( "xwikiCacheResolver" )
+	XWikiCacheResolver xwikiCacheResolver(
+			@Qualifier("xwikiParallelExecutor") XWikiParallelExecutor parallelExecutor,
+			ObjectProvider<MeterRegistry> meterRegistry
+			) {
+		return new XWikiCacheResolver(xWikiProperties.getCache(), parallelExecutor.getExecutor(), meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+	}
+	
+	@Bean( "xwikiCacheKeyGenerator" )
+	XWikiCacheKeyGenerator xwikiCacheKeyGenerator() {
+		return new XWikiCacheKeyGenerator();
+	}
+	
+	/**
+	 * In-memory users and groups, synced in background, enabled with xwiki.directory.enabled=true
+	 * 
+	 * @param mappingService
+	 * @param parallelExecutor
+	 * @return
+	 */
+	@Bean( name = "xwikiDirectoryService", initMethod = "start", destroyMethod = "close" )
+	@ConditionalOnProperty(prefix = "xwiki.directory", name = "enabled", havingValue = "true")
+	XWikiDirectoryService xwikiDirectoryService(
+			@Qualifier("mappingService") XwikiMappingService mappingService,
+			@Qualifier("xwikiParallelExecutor") XWikiParallelExecutor parallelExecutor
+			) {
+		return new XWikiDirectoryService(mappingService, parallelExecutor, xWikiProperties);
+	}
+	
+	
 	/**
 	 * rest READ Services 
 	 * 
@@ -154,11 +339,15 @@ public class XWikiServiceConfiguration {
 	 * @return
 	 */
 	@Bean( name = "xwikiReadService" )
-	XWikiReadService getXwikiReadService( @Qualifier("mappingService") XwikiMappingService mappingService ) {
+	XWikiReadService getXwikiReadService( 
+			@Qualifier("mappingService") XwikiMappingService mappingService,
+			@Qualifier("xwikiParallelExecutor") XWikiParallelExecutor parallelExecutor,
+			@Qualifier("xwikiDirectoryService") ObjectProvider<XWikiDirectoryService> directory
+			) {
 		
 		XWikiReadService XWikiReadService = null;
 		try {
-			XWikiReadService = new XWikiReadService(mappingService, xWikiProperties);
+			XWikiReadService = new XWikiReadService(mappingService, parallelExecutor, xWikiProperties, directory.getIfAvailable());
 		} catch(Exception e) {
 			  logger.error("Unable to create XWikiReadService as bean. error message {}", e.getMessage());
 		}
@@ -166,22 +355,49 @@ public class XWikiServiceConfiguration {
 	}
 	
 
+	/**
+	 * Local rendering, the xwiki components are initialized once for the application context
+	 * and the rendered XHTML is cached by content hash (xwiki.cache.rendered)
+	 * 
+	 * @return
+	 */
+	@Bean( name = "xwikiRenderingService", destroyMethod = "dispose" )
+	XWikiRenderingService xwikiRenderingService(@Qualifier("xwikiParallelExecutor") XWikiParallelExecutor parallelExecutor) {
+		return new XWikiRenderingService(xWikiProperties.getCache().getRendered(), parallelExecutor.getExecutor());
+	}
+	
+	/**
+	 * Html post-processing: the built-in stages enabled under xwiki.html, then the XWikiHtmlRewriter beans
+	 * 
+	 * @param customStages
+	 * @return
+	 */
+	@Bean( name = "xwikiHtmlRewriterChain" )
+	XWikiHtmlRewriterChain xwikiHtmlRewriterChain(ObjectProvider<XWikiHtmlRewriter> customStages) {
+		List<XWikiHtmlRewriter> stages = new ArrayList<>(XWikiHtmlRewriterChain.builtInStages(xWikiProperties));
+		customStages.orderedStream().forEach(stages::add);
+		return new XWikiHtmlRewriterChain(stages);
+	}
+	
 	/**
 	 * HTML Services 
 	 * 
 	 * @param mappingTemplate
 	 * @return
 	 */
-	@Bean( name = "xwikiHtmlService" )
+	@Bean( name = "xwikiHtmlService", destroyMethod = "dispose" )
 	XWikiHtmlService getXwikiHtmlService( 
 			// TODO:check what is really needed !!
 			@Qualifier("mappingService") XwikiMappingService mappingService,
-			@Qualifier("restTemplateService") RestTemplateService restTemplateService
+			@Qualifier("restTemplateService") RestTemplateService restTemplateService,
+			@Qualifier("xwikiRenderingService") XWikiRenderingService renderingService,
+			@Qualifier("xwikiHtmlRewriterChain") XWikiHtmlRewriterChain rewriterChain,
+			@Qualifier("xwikiMetrics") XWikiMetrics metrics
 			) {
 		
 		XWikiHtmlService xwikiHtmlService = null;
 		try {
-			xwikiHtmlService = new XWikiHtmlService(mappingService, restTemplateService, xWikiProperties);
+			xwikiHtmlService = new XWikiHtmlService(mappingService, restTemplateService, renderingService, rewriterChain, metrics, xWikiProperties);
 		} catch(Exception e) {
 			  logger.error("Unable to create XWikiHtmlService as bean. error message {}", e.getMessage());
 		}
@@ -207,22 +423,45 @@ public class XWikiServiceConfiguration {
 	}
 	
 
+	/**
+	 * Groups of the user on login, chosen with xwiki.authentication.group-resolver
+	 * An application can declare its own XWikiGroupResolver bean instead
+	 * 
+	 * @param requestFactory
+	 * @param jsonReaders
+	 * @return
+	 */
+	@Bean( name = "xwikiGroupResolver" )
+	@ConditionalOnMissingBean(XWikiGroupResolver.class)
+	XWikiGroupResolver getXwikiGroupResolver(
+			@Qualifier("xwikiRequestFactory") ClientHttpRequestFactory requestFactory,
+			@Qualifier("xwikiJsonReaders") XwikiJsonReaders jsonReaders,
+			@Qualifier("xwikiMetrics") XWikiMetrics metrics
+			) {
+		// a single login template on the pooled connections, the user credentials are set per request
+		RestTemplate loginRestTemplate = localRestTemplateBuilder.requestFactory(() -> requestFactory).build();
+		return XWikiGroupResolver.create(xWikiProperties, loginRestTemplate, jsonReaders, metrics);
+	}
+	
+
 	/**
 	 * Services related to authentication
 	 * 
 	 * @param mappingTemplate
 	 * @param restTemplateService
+	 * @param groupResolver
 	 * @return
 	 */
 	@Bean( name = "xwikiAuthenticationService" )
 	XWikiAuthenticationService getXwikiAuthenticationService( 
 			@Qualifier("mappingService") XwikiMappingService mappingService,
-			@Qualifier("restTemplateService") RestTemplateService restTemplateService
+			@Qualifier("restTemplateService") RestTemplateService restTemplateService,
+			XWikiGroupResolver groupResolver
 			) {
 		
 		XWikiAuthenticationService xWikiAuthenticationService = null;
 		try {
-			xWikiAuthenticationService = new XWikiAuthenticationService(mappingService, restTemplateService, xWikiProperties, localRestTemplateBuilder);
+			xWikiAuthenticationService = new XWikiAuthenticationService(mappingService, restTemplateService, xWikiProperties, groupResolver);
 		} catch(Exception e) {
 			  logger.error("Unable to create XWikiAuthenticationService as bean. error message {}", e.getMessage());
 		}
@@ -231,14 +470,18 @@ public class XWikiServiceConfiguration {
 	
 	
 	/**
-	 * Basic authentication provider
+	 * Basic authentication provider, successful logins cached under xwiki.cache.authentication
 	 * 
 	 * @param xwikiService
 	 * @return
 	 */
 	@Bean( name = "xwikiAuthenticationProvider" )
-	XwikiAuthenticationProvider getAuthenticationProvider(@Autowired XWikiAuthenticationService xwikiAuthService) {
-		return new XwikiAuthenticationProvider(xwikiAuthService);
+	XwikiAuthenticationProvider getAuthenticationProvider(@Autowired XWikiAuthenticationService xwikiAuthService, ObjectProvider<MeterRegistry> meterRegistry) {
+		AuthenticationCacheSpec spec = xWikiProperties.getCache().getAuthentication();
+		XWikiAuthenticationCache authenticationCache = spec.isEnabled() 
+				? XWikiAuthenticationCache.create(spec, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry)) 
+				: null;
+		return new XwikiAuthenticationProvider(xwikiAuthService, authenticationCache);
 	}
 	
 	
@@ -0,0 +1,145 @@
+package org.open4goods.xwiki.authentication;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import org.open4goods.xwiki.config.UrlManagementHelper;
+import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Group resolution with a request authenticated as the user, the response being parsed by the implementations
+ *
+ * @author Thierry.Ledan
+ */
+public abstract class AbstractGroupResolver implements XWikiGroupResolver {
+
+	private static Logger logger = LoggerFactory.getLogger(AbstractGroupResolver.class);
+
+	protected final RestTemplate loginRestTemplate;
+	protected final XWikiConstantsResourcesPath resourcesPathManager;
+	protected final UrlManagementHelper urlHelper;
+	protected final XWikiMetrics metrics;
+
+	protected AbstractGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties) {
+		this(loginRestTemplate, properties, new XWikiMetrics(Metrics.globalRegistry));
+	}
+
+	protected AbstractGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties, XWikiMetrics metrics) {
+		this.metrics = metrics;
+		this.loginRestTemplate = loginRestTemplate;
+		this.resourcesPathManager = new XWikiConstantsResourcesPath(properties.getBaseUrl(), properties.getApiEntrypoint(), properties.getApiWiki());
+		this.urlHelper = new UrlManagementHelper(properties);
+	}
+
+	@Override
+	public List<String> resolveGroups(String userName, String password) throws Exception {
+
+		URI endpoint = endpoint(userName);
+		logger.info("request xwiki server with endpoint {}", endpoint);
+		if (endpoint == null) {
+			return null;
+		}
+
+		// user credentials on this request only
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBasicAuth(userName, password);
+		ResponseEntity<String> response = null;
+		Timer.Sample sample = metrics.start();
+		try {
+			response = loginRestTemplate.exchange(endpoint, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+			metrics.request(sample, "login", response);
+		}
+		// HTTP status 4xx
+		catch (HttpClientErrorException e) {
+			metrics.request(sample, "login", e);
+			logger.warn("Client error - uri:{} - error:{}", endpoint, e.getStatusCode().toString());
+			throw new Exception(e.getStatusText());
+		}
+		// HTTP status 5xx
+		catch (HttpServerErrorException e) {
+			metrics.request(sample, "login", e);
+			logger.warn("Server error - uri:{} - error:{}", endpoint, e.getStatusCode().toString());
+			throw new Exception(e.getStatusText());
+		}
+		// unknown HTTP status
+		catch (UnknownHttpStatusCodeException e) {
+			metrics.request(sample, "login", e);
+			logger.warn("Server error response  - uri:{} - error:{}", endpoint, e.getStatusCode().toString());
+			throw new Exception("Login error");
+		}
+		// other errors
+		catch (Exception e) {
+			metrics.request(sample, "login", e);
+			logger.warn("Exception while trying to reach endpoint:{} - error:{}", endpoint, e.getMessage());
+			throw new Exception("Login error");
+		}
+
+		if (response == null || ! response.getStatusCode().is2xxSuccessful()) {
+			logger.warn("Response returns with status code:{} - for uri:{}", response == null ? null : response.getStatusCode(), endpoint);
+			return null;
+		}
+		try {
+			return parse(response.getBody(), userName);
+		} catch (Exception e) {
+			// login succeeded but the groups are unreadable
+			logger.warn("Exception while searching groups in response: {}", response.getBody());
+			throw new Exception("Groups parsing error");
+		}
+	}
+
+	/**
+	 * @param userName
+	 * @return endpoint answering the groups of the user, sent as is, null if it could not be built
+	 */
+	protected abstract URI endpoint(String userName);
+
+	/**
+	 * Endpoint of a fixed url (no user input): cleaned (url decoding, scheme, 'media' param), then expanded
+	 * as the rest template does for string urls
+	 * @param url
+	 * @return
+	 */
+	protected URI cleanEndpoint(String url) {
+		String clean = this.urlHelper.cleanUrl(url);
+		return clean == null ? null : loginRestTemplate.getUriTemplateHandler().expand(clean);
+	}
+
+	/**
+	 * @param body response body
+	 * @param userName
+	 * @return groups of the user
+	 */
+	protected abstract List<String> parse(String body, String userName) throws Exception;
+
+	/**
+	 * Groups printed as a list: '[xwiki:XWiki.A, xwiki:XWiki.B]'
+	 * @param text
+	 * @return
+	 */
+	protected static List<String> parseGroupList(String text) {
+		String list = text.trim();
+		if (! list.startsWith("[") || ! list.endsWith("]")) {
+			throw new IllegalArgumentException("Not a groups list: " + list);
+		}
+		return Arrays.stream(list.substring(1, list.length() - 1).split(","))
+				.map(String::trim)
+				.filter(group -> ! group.isEmpty())
+				.toList();
+	}
+}
@@ -0,0 +1,39 @@
+package org.open4goods.xwiki.authentication;
+
+import java.net.URI;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Groups printed by the currentUserGroups page, read from its full skinned html
+ *
+ * @author Thierry.Ledan
+ */
+public class HtmlGroupResolver extends AbstractGroupResolver {
+
+	public HtmlGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties) {
+		super(loginRestTemplate, properties);
+	}
+
+	public HtmlGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties, XWikiMetrics metrics) {
+		super(loginRestTemplate, properties, metrics);
+	}
+
+	@Override
+	protected URI endpoint(String userName) {
+		return cleanEndpoint(resourcesPathManager.getCurrentUserGroupsEndpoint());
+	}
+
+	@Override
+	protected List<String> parse(String body, String userName) {
+		Document doc = Jsoup.parse(body);
+		Element div = doc.getElementById("xwikicontent");
+		return parseGroupList(div.text());
+	}
+}
@@ -0,0 +1,39 @@
+package org.open4goods.xwiki.authentication;
+
+import java.net.URI;
+import java.util.List;
+
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiContentExtractor;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Groups printed by the currentUserGroups page, rendered without the skin (xpage=plain):
+ * a few bytes instead of the full page, no html parsing
+ *
+ * @author Thierry.Ledan
+ */
+public class PlainGroupResolver extends AbstractGroupResolver {
+
+	public PlainGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties) {
+		super(loginRestTemplate, properties);
+	}
+
+	public PlainGroupResolver(RestTemplate loginRestTemplate, XWikiServiceProperties properties, XWikiMetrics metrics) {
+		super(loginRestTemplate, properties, metrics);
+	}
+
+	@Override
+	protected URI endpoint(String userName) {
+		return cleanEndpoint(resourcesPathManager.getCurrentUserGroupsEndpoint() + "?xpage=plain");
+	}
+
+	@Override
+	protected List<String> parse(String body, String userName) {
+		// xpage ignored by the server: full page
+		String content = XWikiContentExtractor.hasContentBlock(body) ? XWikiContentExtractor.extract(body) : body;
+		// rendered content, the list could be wrapped in a paragraph
+		return parseGroupList(content.replaceAll("<[^>]*>", ""));
+	}
+}
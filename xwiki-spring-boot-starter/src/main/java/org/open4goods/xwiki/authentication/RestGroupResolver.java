@@ -0,0 +1,60 @@
+package org.open4goods.xwiki.authentication;
+
+import java.net.URI;
+import java.util.List;
+
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.springframework.web.client.RestTemplate;
+import org.xwiki.rest.model.jaxb.SearchResult;
+import org.xwiki.rest.model.jaxb.SearchResults;
+
+/**
+ * Groups having the user as member (XWiki.XWikiGroups objects), from a rest query in json
+ * No page is needed on the wiki. Note: only direct memberships are returned, implicit ones
+ * (XWiki.XWikiAllGroup) and groups of groups are not
+ * Security: the groups are those of the user name sent by the client, the query being run as this user. This mode
+ * relies on xwiki answering 401 to wrong Basic credentials (its default for the rest api). A wiki letting
+ * failed Basic logins through as guest would grant the groups of any user name: use PLAIN or HTML there, which
+ * read the groups of the user authenticated by xwiki
+ *
+ * @author Thierry.Ledan
+ */
+public class RestGroupResolver extends AbstractGroupResolver {
+
+	private final XwikiJsonReaders jsonReaders;
+	private final XWikiServiceProperties properties;
+
+	public RestGroupResolver(RestTemplate loginRestTemplate, XwikiJsonReaders jsonReaders, XWikiServiceProperties properties) {
+		super(loginRestTemplate, properties);
+		this.jsonReaders = jsonReaders;
+		this.properties = properties;
+	}
+
+	public RestGroupResolver(RestTemplate loginRestTemplate, XwikiJsonReaders jsonReaders, XWikiServiceProperties properties, XWikiMetrics metrics) {
+		super(loginRestTemplate, properties, metrics);
+		this.jsonReaders = jsonReaders;
+		this.properties = properties;
+	}
+
+	@Override
+	protected URI endpoint(String userName) {
+		// user input: encoded once, never url decoded (see UrlManagementHelper.cleanUrl)
+		URI query = resourcesPathManager.getUserGroupsQueryEndpoint(userName, properties.getMedia());
+		return URI.create(urlHelper.updateUrlScheme(query.toString()));
+	}
+
+	@Override
+	protected List<String> parse(String body, String userName) throws Exception {
+		SearchResults results = jsonReaders.reader(SearchResults.class).readValue(body);
+		return results.getSearchResults().stream()
+				.map(this::reference)
+				.distinct()
+				.toList();
+	}
+
+	private String reference(SearchResult result) {
+		return result.getWiki() + ":" + result.getPageFullName();
+	}
+}
@@ -0,0 +1,99 @@
+package org.open4goods.xwiki.authentication;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.open4goods.xwiki.config.XWikiCacheProperties.AuthenticationCacheSpec;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Successful xwiki logins, by user name, with their granted authorities
+ * Passwords are only kept as salted PBKDF2 hashes, compared in constant time
+ * An unknown user costs a hash check too (against a dummy hash), so the response time does not tell cached users apart
+ * A wrong password is never answered from the cache: the login is requested to xwiki
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiAuthenticationCache {
+
+	private record Login(String passwordHash, List<GrantedAuthority> authorities) {
+	}
+
+	private final Cache<String, Login> logins;
+	private final Pbkdf2PasswordEncoder encoder;
+	// compared on a miss, same cost as a cached login
+	private final String dummyHash;
+
+	/**
+	 * Cache with its metrics (cache.gets, cache.size, cache.evictions... tagged cache=xwiki.authentication)
+	 * A lookup of a cached user with a wrong password counts as a hit: the cache found the user, xwiki is asked anyway
+	 * @param spec size, ttl and hash iterations
+	 * @param meterRegistry
+	 * @return
+	 */
+	public static XWikiAuthenticationCache create(AuthenticationCacheSpec spec, MeterRegistry meterRegistry) {
+		XWikiAuthenticationCache cache = new XWikiAuthenticationCache(spec);
+		CaffeineCacheMetrics.monitor(meterRegistry, cache.logins, "xwiki.authentication");
+		return cache;
+	}
+
+	/**
+	 * Cache without metrics, see {@link #create(AuthenticationCacheSpec, MeterRegistry)}
+	 * @param spec size, ttl and hash iterations
+	 */
+	public XWikiAuthenticationCache(AuthenticationCacheSpec spec) {
+		this.logins = Caffeine.newBuilder()
+				.maximumSize(spec.getMaximumSize())
+				.expireAfterWrite(spec.getTtl())
+				.recordStats()
+				.build();
+		// random 16 bytes salt per hash
+		this.encoder = new Pbkdf2PasswordEncoder("", 16, spec.getHashIterations(), SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+		this.dummyHash = encoder.encode(UUID.randomUUID().toString());
+	}
+
+	/**
+	 * Authorities of a cached login
+	 * @param userName
+	 * @param password
+	 * @return the authorities, null if the user is not cached or the password does not match
+	 */
+	public List<GrantedAuthority> get(String userName, String password) {
+		Login login = logins.getIfPresent(userName);
+		boolean matches = encoder.matches(password, login == null ? dummyHash : login.passwordHash());
+		if (login != null && matches) {
+			return login.authorities();
+		}
+		return null;
+	}
+
+	/**
+	 * Cache a successful login
+	 * @param userName
+	 * @param password
+	 * @param authorities
+	 */
+	public void put(String userName, String password, List<GrantedAuthority> authorities) {
+		logins.put(userName, new Login(encoder.encode(password), List.copyOf(authorities)));
+	}
+
+	/**
+	 * Forget the login of 'userName' (password or groups changed)
+	 * @param userName
+	 */
+	public void evict(String userName) {
+		logins.invalidate(userName);
+	}
+
+	public void evictAll() {
+		logins.invalidateAll();
+	}
+}
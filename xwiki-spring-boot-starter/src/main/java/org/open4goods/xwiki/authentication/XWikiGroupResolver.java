@@ -0,0 +1,49 @@
+package org.open4goods.xwiki.authentication;
+
+import java.util.List;
+
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Resolves the groups of a user on login, the credentials being checked by xwiki on the same request
+ * The implementation is chosen with 'xwiki.authentication.group-resolver', an application could declare its own bean
+ *
+ * @author Thierry.Ledan
+ */
+public interface XWikiGroupResolver {
+
+	/**
+	 * @param userName
+	 * @param password
+	 * @return groups of the user ('xwiki:XWiki.XWikiAdminGroup'...)
+	 * @throws Exception if the login failed (wrong credentials, xwiki unreachable, unreadable groups)
+	 */
+	List<String> resolveGroups(String userName, String password) throws Exception;
+
+	/**
+	 * The built-in resolver configured under 'xwiki.authentication'
+	 * @param properties
+	 * @param loginRestTemplate template without credentials, shared by the logins
+	 * @param jsonReaders
+	 * @return
+	 */
+	static XWikiGroupResolver create(XWikiServiceProperties properties, RestTemplate loginRestTemplate, XwikiJsonReaders jsonReaders) {
+		return create(properties, loginRestTemplate, jsonReaders, new XWikiMetrics(Metrics.globalRegistry));
+	}
+
+	/**
+	 * Same as {@link #create(XWikiServiceProperties, RestTemplate, XwikiJsonReaders)}, the login requests being measured in 'metrics'
+	 */
+	static XWikiGroupResolver create(XWikiServiceProperties properties, RestTemplate loginRestTemplate, XwikiJsonReaders jsonReaders, XWikiMetrics metrics) {
+		return switch (properties.getAuthentication().getGroupResolver()) {
+			case HTML -> new HtmlGroupResolver(loginRestTemplate, properties, metrics);
+			case PLAIN -> new PlainGroupResolver(loginRestTemplate, properties, metrics);
+			case REST -> new RestGroupResolver(loginRestTemplate, jsonReaders, properties, metrics);
+		};
+	}
+}
@@ -0,0 +1,179 @@
+package org.open4goods.xwiki.authentication;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.open4goods.xwiki.config.UrlManagementHelper;
+import org.open4goods.xwiki.config.XWikiAuthenticationProperties;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Session of the service account: logs in once on xwiki (form login, 'remember me') and shares the resulting
+ * cookies (JSESSIONID and the xwiki authentication cookies) between all the requests, so that xwiki does not
+ * check the password hash on every call. The session is renewed after 'xwiki.authentication.session-ttl';
+ * while no session is available (login failed, being renewed) the basic credentials are used.
+ * A single thread logs in, the others never wait for it (no monitor held during the login, virtual threads are not pinned)
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiSessionAuthenticator {
+
+	private static Logger logger = LoggerFactory.getLogger(XWikiSessionAuthenticator.class);
+
+	private static final String LOGIN_PATH = "/bin/loginsubmit/XWiki/XWikiLogin";
+
+	/**
+	 * @param cookies Cookie header value
+	 * @param expiresAt renewed after this instant
+	 */
+	public record Session(String cookies, Instant expiresAt) {
+	}
+
+	// posts the login form, redirections not followed to read the cookies
+	private final RestTemplate loginTemplate;
+	private final String loginUrl;
+	private final String userName;
+	private final String password;
+	private final XWikiAuthenticationProperties properties;
+	private final Clock clock;
+	private final XWikiMetrics metrics;
+
+	private final AtomicReference<Session> session = new AtomicReference<>();
+	private volatile Instant nextLogin = Instant.MIN;
+	// held by the thread logging in
+	private final ReentrantLock renewing = new ReentrantLock();
+
+	public XWikiSessionAuthenticator(RestTemplate loginTemplate, XWikiServiceProperties xWikiProperties) {
+		this(loginTemplate, xWikiProperties, new XWikiMetrics(Metrics.globalRegistry), Clock.systemUTC());
+	}
+
+	public XWikiSessionAuthenticator(RestTemplate loginTemplate, XWikiServiceProperties xWikiProperties, XWikiMetrics metrics, Clock clock) {
+		this.metrics = metrics;
+		this.loginTemplate = loginTemplate;
+		this.loginUrl = new UrlManagementHelper(xWikiProperties).updateUrlScheme(xWikiProperties.getBaseUrl() + LOGIN_PATH);
+		this.userName = xWikiProperties.getUsername();
+		this.password = xWikiProperties.getPassword();
+		this.properties = xWikiProperties.getAuthentication();
+		this.clock = clock;
+	}
+
+	/**
+	 * Add the session cookies to 'headers', or the basic credentials if there is no session
+	 * @param headers
+	 * @return the session used, null for basic credentials
+	 */
+	public Session authenticate(HttpHeaders headers) {
+		Session current = currentSession();
+		if (current != null) {
+			headers.add(HttpHeaders.COOKIE, current.cookies());
+		} else {
+			headers.setBasicAuth(userName, password);
+		}
+		return current;
+	}
+
+	/**
+	 * 'rejected' was refused by xwiki (401): dropped, a new login is done on the next request
+	 * @param rejected
+	 */
+	public void invalidate(Session rejected) {
+		if (rejected != null && session.compareAndSet(rejected, null)) {
+			logger.info("xwiki session of {} rejected, logging in again", userName);
+			nextLogin = Instant.MIN;
+		}
+	}
+
+	private Session currentSession() {
+		Session current = session.get();
+		if (current != null && clock.instant().isBefore(current.expiresAt())) {
+			return current;
+		}
+		return renew();
+	}
+
+	/**
+	 * @return the new session, null if the login failed, is delayed or is in progress in another thread
+	 */
+	private Session renew() {
+		if (!renewing.tryLock()) {
+			return null;
+		}
+		try {
+			Instant now = clock.instant();
+			// renewed meanwhile by another thread
+			Session current = session.get();
+			if (current != null && now.isBefore(current.expiresAt())) {
+				return current;
+			}
+			session.set(null);
+			if (now.isBefore(nextLogin)) {
+				return null;
+			}
+			Session renewed = null;
+			try {
+				renewed = login(now);
+			} catch (Exception e) {
+				logger.warn("xwiki login of {} failed - error:{}", userName, e.getMessage());
+			}
+			if (renewed == null) {
+				nextLogin = now.plus(properties.getLoginRetryDelay());
+			}
+			session.set(renewed);
+			return renewed;
+		} finally {
+			renewing.unlock();
+		}
+	}
+
+	private Session login(Instant now) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+		MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+		form.add("j_username", userName);
+		form.add("j_password", password);
+		form.add("j_rememberme", "true");
+
+		ResponseEntity<Void> response;
+		Timer.Sample sample = metrics.start();
+		try {
+			response = loginTemplate.postForEntity(loginUrl, new HttpEntity<>(form, headers), Void.class);
+			metrics.request(sample, "login", response);
+		} catch (RuntimeException e) {
+			metrics.request(sample, "login", e);
+			throw e;
+		}
+		List<String> setCookies = response.getHeaders().get(HttpHeaders.SET_COOKIE);
+		// a successful login redirects, a failed one renders the login form again
+		if (!response.getStatusCode().is3xxRedirection() || setCookies == null) {
+			logger.warn("xwiki login of {} refused - status:{}", userName, response.getStatusCode());
+			return null;
+		}
+		String cookies = setCookies.stream()
+				.map(cookie -> cookie.split(";", 2)[0].trim())
+				// removed cookies
+				.filter(cookie -> cookie.indexOf('=') > 0 && cookie.indexOf('=') < cookie.length() - 1)
+				.collect(Collectors.joining("; "));
+		if (cookies.isEmpty()) {
+			return null;
+		}
+		logger.info("xwiki session opened for {}", userName);
+		return new Session(cookies, now.plus(properties.getSessionTtl()));
+	}
+}
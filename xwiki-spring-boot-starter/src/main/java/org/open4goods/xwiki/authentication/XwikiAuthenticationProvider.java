@@ -28,8 +28,16 @@ public class XwikiAuthenticationProvider implements AuthenticationProvider {
 
 	XWikiAuthenticationService xwikiAuthenticationService;
 	
+	// successful logins, null if disabled
+	XWikiAuthenticationCache authenticationCache;
+	
 	public XwikiAuthenticationProvider(XWikiAuthenticationService xwikiAuthenticationService) {
+		this(xwikiAuthenticationService, null);
+	}
+	
+	public XwikiAuthenticationProvider(XWikiAuthenticationService xwikiAuthenticationService, XWikiAuthenticationCache authenticationCache) {
 		this.xwikiAuthenticationService = xwikiAuthenticationService;
+		this.authenticationCache = authenticationCache;
 	}
 	
 	@Override
@@ -43,6 +51,13 @@ public class XwikiAuthenticationProvider implements AuthenticationProvider {
 		String password = authentication.getCredentials().toString();
 		String user = authentication.getName();
 
+		if( authenticationCache != null ) {
+			List<GrantedAuthority> cached = authenticationCache.get(user, password);
+			if( cached != null ) {
+				return new UsernamePasswordAuthenticationToken(authentication.getName(), authentication.getCredentials(), cached);
+			}
+		}
+		
 		List<String> groups  = new ArrayList<String>();
 		try {
 			groups = xwikiAuthenticationService.login(user, password);
@@ -59,6 +74,10 @@ public class XwikiAuthenticationProvider implements AuthenticationProvider {
 				grantedAuths.add(new SimpleGrantedAuthority( "ROLE_" + e.replace("xwiki:XWiki.", "").trim().toUpperCase() ));
 			});
 		}
+		// groups unknown (not resolved): no authorities, not cached so they are resolved again on next login
+		if( authenticationCache != null && groups != null ) {
+			authenticationCache.put(user, password, grantedAuths);
+		}
 		
 		return new UsernamePasswordAuthenticationToken(authentication.getName(), authentication.getCredentials(), grantedAuths);
 	}
@@ -0,0 +1,475 @@
+package org.open4goods.xwiki.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+
+import org.open4goods.xwiki.config.XWikiCacheProperties.AttachmentsCacheSpec;
+import org.open4goods.xwiki.model.AttachmentStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Local on-disk store of the attachments, bounded by a byte budget (least recently used evicted first)
+ * An entry is keyed by the attachment reference (wiki, space, page, file) and stored along with its version (ETag).
+ * Each file has a '.meta' sidecar, so the store survives restarts.
+ * Hits are served with sendfile (Tomcat), without copying the file through the heap; other containers get a copy
+ * through a fixed size buffer (the servlet api gives no channel to the socket, so FileChannel.transferTo would not
+ * be zero-copy either).
+ * A file being served is never deleted under the transfer: an evicted or replaced entry keeps its file while it is
+ * read, and at least {@link #SENDFILE_GRACE} after it was handed to sendfile (the connector opens it once the request
+ * is processed). Its '.meta' is removed at once, so it is not loaded again after a restart
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiAttachmentDiskCache {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(XWikiAttachmentDiskCache.class);
+
+	private static final String DATA_SUFFIX = ".bin";
+	private static final String META_SUFFIX = ".meta";
+
+	// Tomcat sendfile request attributes
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	// delay before deleting a file handed to sendfile
+	public static final Duration SENDFILE_GRACE = Duration.ofMinutes(1);
+
+	/**
+	 * A stored attachment
+	 */
+	public static class Entry {
+
+		private final String key;
+		private final Path file;
+		private final String etag;
+		private final String contentType;
+		private final long length;
+		private final long lastModified;
+		// last time the version was checked against xwiki
+		private volatile long validatedAt;
+		// transfers in progress, and end of the sendfile grace (guarded by the cache)
+		private int readers;
+		private long sendfileUntil;
+
+		private Entry(String key, Path file, String etag, String contentType, long length, long lastModified, long validatedAt) {
+			this.key = key;
+			this.file = file;
+			this.etag = etag;
+			this.contentType = contentType;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.validatedAt = validatedAt;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private final Path directory;
+	private final long maximumSize;
+	private final long maximumFileSize;
+	private final Duration revalidateAfter;
+
+	// access ordered: least recently used first
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private long size;
+	// removed entries whose file is still being served
+	private final List<Entry> pendingDeletes = new ArrayList<>();
+
+	/**
+	 * Open the store, the entries of a previous run are loaded from 'directory'
+	 * @param spec
+	 * @throws IOException if the directory can not be created
+	 */
+	public XWikiAttachmentDiskCache(AttachmentsCacheSpec spec) throws IOException {
+		this.directory = Path.of(spec.getDirectory());
+		this.maximumSize = spec.getMaximumSize().toBytes();
+		this.maximumFileSize = spec.getMaximumFileSize().toBytes();
+		this.revalidateAfter = spec.getRevalidateAfter();
+		Files.createDirectories(directory);
+		load();
+	}
+
+	/**
+	 * Stored attachment for 'key'
+	 * @param key
+	 * @return the entry, null if not stored
+	 */
+	public synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * @param entry
+	 * @return true if the entry version was checked against xwiki recently enough to be served as is
+	 */
+	public boolean isFresh(Entry entry) {
+		return System.currentTimeMillis() - entry.validatedAt < revalidateAfter.toMillis();
+	}
+
+	/**
+	 * The entry version was confirmed by xwiki (304)
+	 * @param entry
+	 */
+	public void revalidated(Entry entry) {
+		entry.validatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param attachment
+	 * @return true if the attachment can be stored: full content with a version and a known length within the limits
+	 */
+	public boolean accepts(AttachmentStream attachment) {
+		return attachment.getStatus() == HttpStatus.OK.value() && attachment.getEtag() != null
+				&& attachment.getContentLength() >= 0 && attachment.getContentLength() <= maximumFileSize;
+	}
+
+	/**
+	 * Store the body of 'attachment' under 'key', replacing the previous version if any
+	 * The body is consumed
+	 * @param key
+	 * @param attachment an accepted attachment, see {@link #accepts(AttachmentStream)}
+	 * @return the stored entry
+	 * @throws IOException
+	 */
+	public Entry store(String key, AttachmentStream attachment) throws IOException {
+
+		String name = hash(key + "@" + attachment.getEtag());
+		Path file = directory.resolve(name + DATA_SUFFIX);
+		Path tmp = Files.createTempFile(directory, name, ".tmp");
+		try {
+			try (InputStream in = attachment.getInputStream(); OutputStream out = Files.newOutputStream(tmp)) {
+				byte[] buffer = new byte[AttachmentStream.BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		Entry entry = new Entry(key, file, attachment.getEtag(), attachment.getContentType(), Files.size(file),
+				attachment.getLastModified(), System.currentTimeMillis());
+		writeMeta(entry);
+		put(entry);
+		return entry;
+	}
+
+	/**
+	 * Serve a stored attachment: status, metadata headers, then the file with sendfile or a fixed size buffer copy
+	 * @param entry
+	 * @param request
+	 * @param response
+	 * @return true if served, false if the file disappeared (evicted meanwhile), nothing being written
+	 * @throws IOException
+	 */
+	public boolean serve(Entry entry, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		if (! pin(entry)) {
+			return false;
+		}
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(entry.file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			unpin(entry);
+			remove(entry);
+			return false;
+		}
+		try (channel) {
+			response.setStatus(HttpStatus.OK.value());
+			if (entry.contentType != null) {
+				response.setContentType(entry.contentType);
+			}
+			response.setContentLengthLong(entry.length);
+			response.setHeader(HttpHeaders.ETAG, entry.etag);
+			if (entry.lastModified >= 0) {
+				response.setDateHeader(HttpHeaders.LAST_MODIFIED, entry.lastModified);
+			}
+
+			if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+				// the connector sends the file once the request is processed: kept a while if removed meanwhile
+				sendfile(entry);
+				request.setAttribute(SENDFILE_FILENAME, entry.file.toAbsolutePath().toString());
+				request.setAttribute(SENDFILE_START, 0L);
+				request.setAttribute(SENDFILE_END, entry.length);
+				return true;
+			}
+
+			InputStream in = Channels.newInputStream(channel);
+			OutputStream out = response.getOutputStream();
+			byte[] buffer = new byte[AttachmentStream.BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			response.flushBuffer();
+			return true;
+		} finally {
+			unpin(entry);
+		}
+	}
+
+	/**
+	 * Remove the stored attachment for 'key'
+	 * @param key
+	 */
+	public synchronized void evict(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			size -= entry.length;
+			delete(entry);
+		}
+		purge();
+	}
+
+	private synchronized void remove(Entry entry) {
+		if (entries.get(entry.key) == entry) {
+			evict(entry.key);
+		}
+	}
+
+	/**
+	 * @return size in bytes of the stored attachments
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Persist the usage order (as the files modification times), for the next run
+	 */
+	public synchronized void close() {
+		long now = System.currentTimeMillis();
+		int rank = entries.size();
+		for (Entry entry : entries.values()) {
+			try {
+				Files.setLastModifiedTime(entry.file, FileTime.fromMillis(now - rank--));
+			} catch (IOException e) {
+				LOGGER.debug("Unable to save usage of {} - error:{}", entry.file, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return false if the entry was removed meanwhile
+	 */
+	private synchronized boolean pin(Entry entry) {
+		if (entries.get(entry.key) != entry) {
+			return false;
+		}
+		entry.readers++;
+		return true;
+	}
+
+	private synchronized void unpin(Entry entry) {
+		entry.readers--;
+		purge();
+	}
+
+	private synchronized void sendfile(Entry entry) {
+		entry.sendfileUntil = System.currentTimeMillis() + SENDFILE_GRACE.toMillis();
+	}
+
+	/**
+	 * Delete the pending files no longer served
+	 */
+	private synchronized void purge() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> pending = pendingDeletes.iterator();
+		while (pending.hasNext()) {
+			Entry entry = pending.next();
+			if (entry.readers <= 0 && now >= entry.sendfileUntil) {
+				pending.remove();
+				Entry current = entries.get(entry.key);
+				// the same version may have been stored again under the same file
+				if (current == null || ! current.file.equals(entry.file)) {
+					deleteFile(entry.file);
+				}
+			}
+		}
+	}
+
+	private synchronized void put(Entry entry) {
+		Entry previous = entries.put(entry.key, entry);
+		if (previous != null) {
+			size -= previous.length;
+			if (! previous.file.equals(entry.file)) {
+				delete(previous);
+			}
+		}
+		size += entry.length;
+
+		Iterator<Entry> lru = entries.values().iterator();
+		while (size > maximumSize && lru.hasNext()) {
+			Entry eldest = lru.next();
+			if (eldest != entry) {
+				lru.remove();
+				size -= eldest.length;
+				delete(eldest);
+			}
+		}
+		purge();
+	}
+
+	/**
+	 * Load the entries stored by a previous run, least recently used first
+	 */
+	private void load() throws IOException {
+		// downloads interrupted by a stop
+		try (DirectoryStream<Path> tmps = Files.newDirectoryStream(directory, "*.tmp")) {
+			for (Path tmp : tmps) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		// files kept for a transfer when the previous run stopped
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DATA_SUFFIX)) {
+			for (Path file : files) {
+				if (! Files.exists(metaFile(file))) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		List<Entry> loaded = new ArrayList<>();
+		try (DirectoryStream<Path> metas = Files.newDirectoryStream(directory, "*" + META_SUFFIX)) {
+			for (Path meta : metas) {
+				Entry entry = readMeta(meta);
+				if (entry != null) {
+					loaded.add(entry);
+				} else {
+					Files.deleteIfExists(meta);
+				}
+			}
+		}
+		loaded.sort(Comparator.comparingLong(this::lastUsed));
+		// entries of a previous run are checked against xwiki on first use
+		loaded.forEach(entry -> entry.validatedAt = 0);
+		loaded.forEach(this::put);
+		LOGGER.info("{} attachments ({} bytes) loaded from {}", entries.size(), size, directory);
+	}
+
+	private long lastUsed(Entry entry) {
+		try {
+			return Files.getLastModifiedTime(entry.file).toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private void writeMeta(Entry entry) throws IOException {
+		Properties meta = new Properties();
+		meta.setProperty("key", entry.key);
+		meta.setProperty("etag", entry.etag);
+		if (entry.contentType != null) {
+			meta.setProperty("contentType", entry.contentType);
+		}
+		meta.setProperty("lastModified", String.valueOf(entry.lastModified));
+		try (Writer writer = Files.newBufferedWriter(metaFile(entry.file), StandardCharsets.UTF_8)) {
+			meta.store(writer, null);
+		}
+	}
+
+	private Entry readMeta(Path metaFile) {
+		String name = metaFile.getFileName().toString();
+		Path file = directory.resolve(name.substring(0, name.length() - META_SUFFIX.length()) + DATA_SUFFIX);
+		try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+			Properties meta = new Properties();
+			meta.load(reader);
+			if (! Files.isRegularFile(file) || meta.getProperty("key") == null || meta.getProperty("etag") == null) {
+				Files.deleteIfExists(file);
+				return null;
+			}
+			return new Entry(meta.getProperty("key"), file, meta.getProperty("etag"), meta.getProperty("contentType"),
+					Files.size(file), Long.parseLong(meta.getProperty("lastModified", "-1")), 0);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Unable to load stored attachment {} - error:{}", metaFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Delete a removed entry, its file is kept while served (see {@link #purge()})
+	 */
+	private synchronized void delete(Entry entry) {
+		deleteFile(metaFile(entry.file));
+		if (entry.readers > 0 || System.currentTimeMillis() < entry.sendfileUntil) {
+			pendingDeletes.add(entry);
+		} else {
+			deleteFile(entry.file);
+		}
+	}
+
+	private void deleteFile(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to delete stored attachment {} - error:{}", file, e.getMessage());
+		}
+	}
+
+	private Path metaFile(Path file) {
+		String name = file.getFileName().toString();
+		return file.resolveSibling(name.substring(0, name.length() - DATA_SUFFIX.length()) + META_SUFFIX);
+	}
+
+	private static String hash(String value) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
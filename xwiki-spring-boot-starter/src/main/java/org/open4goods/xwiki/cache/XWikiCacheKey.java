@@ -0,0 +1,58 @@
+package org.open4goods.xwiki.cache;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Cache key of a cached service method invocation
+ * Equality relies on the method and its arguments only. The target is kept to recompute
+ * the value when the entry is refreshed in background
+ *
+ * @author Thierry.Ledan
+ */
+public final class XWikiCacheKey {
+
+	private final transient Object target;
+	private final Method method;
+	private final Object[] args;
+	private final int hashCode;
+
+	public XWikiCacheKey(Object target, Method method, Object... args) {
+		this.target = target;
+		this.method = method;
+		this.args = args == null ? new Object[0] : args.clone();
+		this.hashCode = 31 * method.hashCode() + Arrays.deepHashCode(this.args);
+	}
+
+	/**
+	 * Invoke the method on the (non proxied) target, bypassing the cache
+	 * @return the fresh value
+	 * @throws Exception the exception raised by the method
+	 */
+	public Object invoke() throws Exception {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return this == other || (other instanceof XWikiCacheKey key && method.equals(key.method) && Arrays.deepEquals(args, key.args));
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return method.getName() + Arrays.deepToString(args);
+	}
+}
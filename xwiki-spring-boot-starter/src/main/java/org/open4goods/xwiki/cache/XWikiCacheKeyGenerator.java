@@ -0,0 +1,18 @@
+package org.open4goods.xwiki.cache;
+
+import java.lang.reflect.Method;
+
+import org.springframework.cache.interceptor.KeyGenerator;
+
+/**
+ * Generates {@link XWikiCacheKey}, allowing xwiki caches to refresh their entries in background
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiCacheKeyGenerator implements KeyGenerator {
+
+	@Override
+	public Object generate(Object target, Method method, Object... params) {
+		return new XWikiCacheKey(target, method, params);
+	}
+}
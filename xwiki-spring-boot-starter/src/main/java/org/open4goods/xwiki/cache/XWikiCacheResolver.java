@@ -0,0 +1,105 @@
+package org.open4goods.xwiki.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.open4goods.xwiki.config.XWikiCacheProperties;
+import org.open4goods.xwiki.config.XWikiCacheProperties.CacheSpec;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.AbstractCacheResolver;
+import org.springframework.cache.interceptor.CacheOperationInvocationContext;
+import org.springframework.cache.support.SimpleCacheManager;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Resolves the xwiki caches (pages, page lists, properties, html, groups) used by the services @Cacheable.
+ * The caches are owned by the starter, and do not need to be declared by the calling app.
+ * The cache manager is not exposed as a bean, so it does not replace the one of the calling app
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiCacheResolver extends AbstractCacheResolver {
+
+	/**
+	 *
+	 * @param properties caches properties
+	 * @param executor executor running the background refreshes
+	 * @param meterRegistry registry of the refresh metrics
+	 */
+	public XWikiCacheResolver(XWikiCacheProperties properties, Executor executor, MeterRegistry meterRegistry) {
+		super(cacheManager(properties, executor, meterRegistry));
+	}
+
+	private static CacheManager cacheManager(XWikiCacheProperties properties, Executor executor, MeterRegistry meterRegistry) {
+		List<Cache> caches = new ArrayList<>();
+		caches.add(buildCache(XWikiServiceProperties.PAGES_CACHE_NAME, properties.getPages(), executor, meterRegistry));
+		caches.add(buildCache(XWikiServiceProperties.PAGE_LISTS_CACHE_NAME, properties.getPageLists(), executor, meterRegistry));
+		caches.add(buildCache(XWikiServiceProperties.PROPERTIES_CACHE_NAME, properties.getProperties(), executor, meterRegistry));
+		caches.add(buildCache(XWikiServiceProperties.HTML_CACHE_NAME, properties.getHtml(), executor, meterRegistry));
+		caches.add(buildCache(XWikiServiceProperties.GROUPS_CACHE_NAME, properties.getGroups(), executor, meterRegistry));
+
+		SimpleCacheManager cacheManager = new SimpleCacheManager();
+		cacheManager.setCaches(caches);
+		cacheManager.initializeCaches();
+		return cacheManager;
+	}
+
+	@Override
+	protected Collection<String> getCacheNames(CacheOperationInvocationContext<?> context) {
+		return context.getOperation().getCacheNames();
+	}
+
+	/**
+	 * Get a cache by its name
+	 * @param name
+	 * @return the cache, null if unknown
+	 */
+	public Cache getCache(String name) {
+		return getCacheManager().getCache(name);
+	}
+
+	/**
+	 * Cache bounded by the estimated size of its entries
+	 * With refresh after write, stale entries are served while reloaded in background (see {@link XWikiRefreshAheadCache})
+	 * @param name
+	 * @param spec
+	 * @param executor
+	 * @param meterRegistry
+	 * @return
+	 */
+	private static Cache buildCache(String name, CacheSpec spec, Executor executor, MeterRegistry meterRegistry) {
+		Caffeine<Object, Object> builder = newBuilder(spec, executor);
+		if (spec.getRefreshAfterWrite() != null) {
+			return new XWikiRefreshAheadCache(name, builder, spec.getRefreshAfterWrite(), meterRegistry);
+		}
+		return new CaffeineCache(name, builder.build());
+	}
+
+	/**
+	 * Caffeine builder configured from 'spec' (weight, ttl, refresh after write)
+	 * @param spec
+	 * @param executor
+	 * @return
+	 */
+	public static Caffeine<Object, Object> newBuilder(CacheSpec spec, Executor executor) {
+		Caffeine<Object, Object> builder = Caffeine.newBuilder()
+				.maximumWeight(spec.getMaximumWeight().toBytes())
+				.weigher(new XWikiCacheWeigher())
+				.executor(executor);
+		if (spec.getTtl() != null) {
+			builder.expireAfterWrite(spec.getTtl());
+		}
+		if (spec.getRefreshAfterWrite() != null) {
+			builder.refreshAfterWrite(spec.getRefreshAfterWrite());
+		}
+		return builder;
+	}
+}
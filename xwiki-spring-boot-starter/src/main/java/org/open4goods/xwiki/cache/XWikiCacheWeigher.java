@@ -0,0 +1,79 @@
+package org.open4goods.xwiki.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.open4goods.xwiki.model.FullPage;
+import org.xwiki.rest.model.jaxb.Attachments;
+import org.xwiki.rest.model.jaxb.Objects;
+import org.xwiki.rest.model.jaxb.Page;
+import org.xwiki.rest.model.jaxb.PageSummary;
+import org.xwiki.rest.model.jaxb.Pages;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * Weighs cache entries with a (rough) estimate of their size in bytes,
+ * so a cache is bounded by the memory its entries use rather than by their number
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiCacheWeigher implements Weigher<Object, Object> {
+
+	@Override
+	public int weigh(Object key, Object value) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, estimate(value)));
+	}
+
+	/**
+	 * Estimated size in bytes of 'value'
+	 * @param value
+	 * @return
+	 */
+	public static long estimate(Object value) {
+
+		if (value == null) {
+			return 16;
+		}
+		if (value instanceof CharSequence text) {
+			return 40 + 2L * text.length();
+		}
+		if (value instanceof byte[] bytes) {
+			return 16 + bytes.length;
+		}
+		if (value instanceof FullPage fullPage) {
+			return 128 + estimate(fullPage.getHtmlContent()) + estimate(fullPage.getWikiPage()) + estimate(fullPage.getProperties());
+		}
+		if (value instanceof Page page) {
+			return 512 + estimate(page.getContent()) + estimate(page.getTitle()) + estimate(page.getAttachments()) + estimate(page.getObjects())
+					+ 150L * page.getLinks().size();
+		}
+		if (value instanceof PageSummary summary) {
+			return 256 + estimate(summary.getTitle()) + 150L * summary.getLinks().size();
+		}
+		if (value instanceof Pages pages) {
+			return 64 + estimate(pages.getPageSummaries());
+		}
+		if (value instanceof Attachments attachments) {
+			return 32 + 400L * attachments.getAttachments().size();
+		}
+		if (value instanceof Objects objects) {
+			return 32 + 300L * objects.getObjectSummaries().size();
+		}
+		if (value instanceof Collection<?> collection) {
+			long size = 16;
+			for (Object element : collection) {
+				size += 8 + estimate(element);
+			}
+			return size;
+		}
+		if (value instanceof Map<?, ?> map) {
+			long size = 48;
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				size += 32 + estimate(entry.getKey()) + estimate(entry.getValue());
+			}
+			return size;
+		}
+		return 128;
+	}
+}
@@ -0,0 +1,81 @@
+package org.open4goods.xwiki.cache;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Stale-while-revalidate cache
+ * An entry older than the soft ttl (refresh after write) is served at once, while a single background task
+ * computes it again. Only the hard ttl (expire after write) forces a synchronous computation.
+ *
+ * Metrics : xwiki.cache.stale.served and xwiki.cache.refreshes, tagged by cache name
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiRefreshAheadCache extends CaffeineCache {
+
+	private final Duration softTtl;
+	private final Counter staleServed;
+
+	/**
+	 *
+	 * @param name cache name
+	 * @param builder builder configured with refresh after write
+	 * @param softTtl age from which an entry is refreshed in background
+	 * @param meterRegistry
+	 */
+	public XWikiRefreshAheadCache(String name, Caffeine<Object, Object> builder, Duration softTtl, MeterRegistry meterRegistry) {
+		super(name, buildCache(builder, meterRegistry.counter("xwiki.cache.refreshes", "cache", name)));
+		this.softTtl = softTtl;
+		this.staleServed = meterRegistry.counter("xwiki.cache.stale.served", "cache", name);
+	}
+
+	@Override
+	protected Object lookup(Object key) {
+		recordIfStale(key);
+		return super.lookup(key);
+	}
+
+	@Override
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		recordIfStale(key);
+		return super.get(key, valueLoader);
+	}
+
+	/**
+	 * Count the entries served while older than the soft ttl (their refresh is triggered by this read)
+	 * The age is the one of the refresh policy, always set here, a hard ttl being optional
+	 * @param key
+	 */
+	private void recordIfStale(Object key) {
+		getNativeCache().policy().refreshAfterWrite()
+			.flatMap(refresh -> refresh.ageOf(key))
+			.filter(age -> age.compareTo(softTtl) >= 0)
+			.ifPresent(age -> staleServed.increment());
+	}
+
+	private static LoadingCache<Object, Object> buildCache(Caffeine<Object, Object> builder, Counter refreshes) {
+		return builder.build(new CacheLoader<Object, Object>() {
+
+			@Override
+			public Object load(Object key) throws Exception {
+				return ((XWikiCacheKey) key).invoke();
+			}
+
+			@Override
+			public Object reload(Object key, Object oldValue) throws Exception {
+				refreshes.increment();
+				return load(key);
+			}
+		});
+	}
+}
@@ -0,0 +1,143 @@
+package org.open4goods.xwiki.cache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.open4goods.xwiki.config.XWikiCacheProperties.CacheSpec;
+import org.springframework.beans.BeanUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.client.ResponseExtractor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Http revalidation of the rest resources
+ * Keeps the validators (ETag, Last-Modified) of the responses along with the parsed object.
+ * The next request for the same resource is conditional (If-None-Match, If-Modified-Since),
+ * and the parsed object is reused if the server answers 304 Not Modified.
+ * Entries are bounded by their estimated size (see {@link XWikiCacheWeigher}) and expire after 'ttl'.
+ * The kept object is never handed out as is: a 304 returns a shallow copy of the rest model objects and read-only
+ * views of the collections. Nested objects are shared and must be treated as read-only
+ *
+ * Metric : xwiki.http.not.modified, number of responses served from a 304
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiRevalidationCache {
+
+	/**
+	 * Validators of a response, with the object parsed from its body
+	 */
+	private record Validated(String etag, long lastModified, Object value) {
+	}
+
+	// jaxb classes of the xwiki rest model, all with a public no-arg constructor
+	private static final String REST_MODEL_PACKAGE = "org.xwiki.rest.model.jaxb";
+
+	private final Cache<Object, Validated> entries;
+	private final Counter notModified;
+
+	/**
+	 *
+	 * @param spec maximum weight (estimated bytes of the parsed objects) and ttl
+	 * @param meterRegistry
+	 */
+	public XWikiRevalidationCache(CacheSpec spec, MeterRegistry meterRegistry) {
+		XWikiCacheWeigher weigher = new XWikiCacheWeigher();
+		Caffeine<Object, Validated> builder = Caffeine.newBuilder()
+				.maximumWeight(spec.getMaximumWeight().toBytes())
+				.weigher((Object key, Validated validated) -> weigher.weigh(key, validated.value()));
+		if (spec.getTtl() != null) {
+			builder.expireAfterWrite(spec.getTtl());
+		}
+		this.entries = builder.build();
+		this.notModified = meterRegistry.counter("xwiki.http.not.modified");
+	}
+
+	/**
+	 * Make a request for 'key' conditional and wrap its 'extractor'
+	 * If validators are known, they are added to 'headers' and a 304 response returns the object kept with them,
+	 * even if the entry expired or was evicted in the meantime. A response with validators is kept along with the
+	 * object extracted
+	 * @param key resource identity
+	 * @param headers request headers
+	 * @param extractor
+	 * @return the extractor of the response to this request
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ResponseExtractor<T> revalidating(Object key, HttpHeaders headers, ResponseExtractor<T> extractor) {
+		// validators sent, the 304 is about this entry
+		Validated validated = entries.getIfPresent(key);
+		if (validated != null) {
+			if (validated.etag() != null) {
+				headers.setIfNoneMatch(validated.etag());
+			}
+			if (validated.lastModified() > 0) {
+				headers.setIfModifiedSince(validated.lastModified());
+			}
+		}
+		return response -> {
+			if (validated != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+				notModified.increment();
+				return (T) copy(validated.value());
+			}
+			T value = extractor.extractData(response);
+			store(key, response, value);
+			return value;
+		};
+	}
+
+	/**
+	 * Forget the validators of 'key', next request will be unconditional
+	 * @param key
+	 */
+	public void evict(Object key) {
+		entries.invalidate(key);
+	}
+
+	/**
+	 * Copy of a kept value, changing it does not change the kept one
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof List<?> list) {
+			return Collections.unmodifiableList(list);
+		}
+		if (value instanceof Set<?> set) {
+			return Collections.unmodifiableSet(set);
+		}
+		if (value instanceof Map<?, ?> map) {
+			return Collections.unmodifiableMap(map);
+		}
+		if (value != null && value.getClass().getPackageName().equals(REST_MODEL_PACKAGE)) {
+			Object copy = BeanUtils.instantiateClass(value.getClass());
+			ReflectionUtils.shallowCopyFieldState(value, copy);
+			return copy;
+		}
+		// String, ResponseEntity...: immutable
+		return value;
+	}
+
+	private void store(Object key, ClientHttpResponse response, Object value) throws IOException {
+		if (value == null || ! response.getStatusCode().is2xxSuccessful()) {
+			return;
+		}
+		HttpHeaders headers = response.getHeaders();
+		String etag = headers.getETag();
+		long lastModified = headers.getLastModified();
+		if (etag != null || lastModified > 0) {
+			entries.put(key, new Validated(etag, lastModified, value));
+		} else {
+			entries.invalidate(key);
+		}
+	}
+}
@@ -88,6 +88,24 @@ public class UrlManagementHelper {
 
 	}
 	
+	/**
+	 * Add query params asking the rest api to embed the 'Page' fields that are disabled by default
+	 * (objects, attachments and class), so they are returned with the page in a single response
+	 * @param pageUrl
+	 * @return this url with the embedding query params, null if process failed
+	 */
+	public String withEmbeddedPageFields(String pageUrl) {
+
+		String url = addQueryParam(pageUrl, "objects", "true");
+		if(url != null) {
+			url = addQueryParam(url, "attachments", "true");
+		}
+		if(url != null) {
+			url = addQueryParam(url, "class", "true");
+		}
+		return url;
+	}
+	
 	/**
 	 * Get href link from rel link in 'links'  
 	 * @param rel
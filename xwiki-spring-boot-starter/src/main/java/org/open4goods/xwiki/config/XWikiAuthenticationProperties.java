@@ -0,0 +1,67 @@
+package org.open4goods.xwiki.config;
+
+import java.time.Duration;
+
+/**
+ * Login and service account session properties, under 'xwiki.authentication'
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiAuthenticationProperties {
+
+	/**
+	 * How the groups of the user are resolved on login (see XWikiGroupResolver)
+	 */
+	public enum GroupResolverType {
+		// currentUserGroups page, full skinned html parsed with jsoup
+		HTML,
+		// currentUserGroups page rendered without the skin (xpage=plain)
+		PLAIN,
+		// rest query on the XWiki.XWikiGroups objects having the user as member, json
+		REST
+	}
+
+	private GroupResolverType groupResolver = GroupResolverType.PLAIN;
+
+	// the service account logs in once (loginsubmit) and its session cookies are sent instead of the basic credentials
+	private boolean session = false;
+
+	// the session is renewed (new login) after this long
+	private Duration sessionTtl = Duration.ofMinutes(30);
+
+	// after a failed login, basic credentials are used this long before trying again
+	private Duration loginRetryDelay = Duration.ofMinutes(1);
+
+
+	public GroupResolverType getGroupResolver() {
+		return groupResolver;
+	}
+
+	public void setGroupResolver(GroupResolverType groupResolver) {
+		this.groupResolver = groupResolver;
+	}
+
+	public boolean isSession() {
+		return session;
+	}
+
+	public void setSession(boolean session) {
+		this.session = session;
+	}
+
+	public Duration getSessionTtl() {
+		return sessionTtl;
+	}
+
+	public void setSessionTtl(Duration sessionTtl) {
+		this.sessionTtl = sessionTtl;
+	}
+
+	public Duration getLoginRetryDelay() {
+		return loginRetryDelay;
+	}
+
+	public void setLoginRetryDelay(Duration loginRetryDelay) {
+		this.loginRetryDelay = loginRetryDelay;
+	}
+}
@@ -0,0 +1,289 @@
+package org.open4goods.xwiki.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Caches properties, under 'xwiki.cache'
+ * One cache per operation, each bounded by the estimated size in bytes of its entries
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiCacheProperties {
+
+	/**
+	 * Size and expiration of a cache
+	 */
+	public static class CacheSpec {
+
+		// max estimated size of all the entries
+		private DataSize maximumWeight;
+
+		// entries expire this long after they were written
+		private Duration ttl;
+
+		// entries older than this are reloaded in background on access, the old value being served meanwhile (null: disabled)
+		private Duration refreshAfterWrite;
+
+		public CacheSpec() {
+		}
+
+		public CacheSpec(DataSize maximumWeight, Duration ttl) {
+			this.maximumWeight = maximumWeight;
+			this.ttl = ttl;
+		}
+
+		public CacheSpec(DataSize maximumWeight, Duration ttl, Duration refreshAfterWrite) {
+			this(maximumWeight, ttl);
+			this.refreshAfterWrite = refreshAfterWrite;
+		}
+
+		public DataSize getMaximumWeight() {
+			return maximumWeight;
+		}
+
+		public void setMaximumWeight(DataSize maximumWeight) {
+			this.maximumWeight = maximumWeight;
+		}
+
+		public Duration getTtl() {
+			return ttl;
+		}
+
+		public void setTtl(Duration ttl) {
+			this.ttl = ttl;
+		}
+
+		public Duration getRefreshAfterWrite() {
+			return refreshAfterWrite;
+		}
+
+		public void setRefreshAfterWrite(Duration refreshAfterWrite) {
+			this.refreshAfterWrite = refreshAfterWrite;
+		}
+	}
+
+	/**
+	 * On-disk attachments store
+	 */
+	public static class AttachmentsCacheSpec {
+
+		// attachments served by the /wiki-files proxy are stored on disk
+		private boolean enabled = false;
+
+		// store directory, kept between restarts
+		private String directory = Path.of(System.getProperty("java.io.tmpdir"), "xwiki-attachments").toString();
+
+		// max size of all the stored attachments, least recently used are evicted first
+		private DataSize maximumSize = DataSize.ofMegabytes(1024);
+
+		// bigger attachments are not stored
+		private DataSize maximumFileSize = DataSize.ofMegabytes(50);
+
+		// a stored attachment is served without asking xwiki for this long, then its version is checked (If-None-Match)
+		private Duration revalidateAfter = Duration.ofMinutes(10);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getDirectory() {
+			return directory;
+		}
+
+		public void setDirectory(String directory) {
+			this.directory = directory;
+		}
+
+		public DataSize getMaximumSize() {
+			return maximumSize;
+		}
+
+		public void setMaximumSize(DataSize maximumSize) {
+			this.maximumSize = maximumSize;
+		}
+
+		public DataSize getMaximumFileSize() {
+			return maximumFileSize;
+		}
+
+		public void setMaximumFileSize(DataSize maximumFileSize) {
+			this.maximumFileSize = maximumFileSize;
+		}
+
+		public Duration getRevalidateAfter() {
+			return revalidateAfter;
+		}
+
+		public void setRevalidateAfter(Duration revalidateAfter) {
+			this.revalidateAfter = revalidateAfter;
+		}
+	}
+
+	/**
+	 * Successful logins of the authentication provider
+	 */
+	public static class AuthenticationCacheSpec {
+
+		// basic-auth clients are not logged in xwiki on every request
+		private boolean enabled = true;
+
+		// max cached logins
+		private long maximumSize = 10000;
+
+		// a login is trusted this long, password or groups changes in xwiki are seen after it
+		private Duration ttl = Duration.ofMinutes(5);
+
+		// PBKDF2 iterations of the cached password hashes
+		private int hashIterations = 10000;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public long getMaximumSize() {
+			return maximumSize;
+		}
+
+		public void setMaximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+		}
+
+		public Duration getTtl() {
+			return ttl;
+		}
+
+		public void setTtl(Duration ttl) {
+			this.ttl = ttl;
+		}
+
+		public int getHashIterations() {
+			return hashIterations;
+		}
+
+		public void setHashIterations(int hashIterations) {
+			this.hashIterations = hashIterations;
+		}
+	}
+
+	// Page
+	private CacheSpec pages = new CacheSpec(DataSize.ofMegabytes(32), Duration.ofHours(1));
+
+	// Pages summaries and Page lists
+	private CacheSpec pageLists = new CacheSpec(DataSize.ofMegabytes(64), Duration.ofHours(1));
+
+	// Page properties
+	private CacheSpec properties = new CacheSpec(DataSize.ofMegabytes(8), Duration.ofHours(1));
+
+	// html fragments, served stale after 5 minutes while rendered again in background
+	private CacheSpec html = new CacheSpec(DataSize.ofMegabytes(32), Duration.ofHours(1), Duration.ofMinutes(5));
+
+	// groups
+	private CacheSpec groups = new CacheSpec(DataSize.ofMegabytes(1), Duration.ofHours(1));
+
+	// FullPage (html, page and properties), one entry per page and locale
+	private CacheSpec fullPage = new CacheSpec(DataSize.ofMegabytes(64), Duration.ofHours(1));
+
+	// locally rendered XHTML, keyed by a hash of the syntax and the source content (shared by versions and translations with the same content)
+	private CacheSpec rendered = new CacheSpec(DataSize.ofMegabytes(32), Duration.ofDays(1));
+
+	// rest responses kept with their validators to be reused on a 304 (xwiki.http.revalidation)
+	private CacheSpec revalidation = new CacheSpec(DataSize.ofMegabytes(64), Duration.ofHours(6));
+
+	// attachments, on disk
+	private AttachmentsCacheSpec attachments = new AttachmentsCacheSpec();
+
+	// logins
+	private AuthenticationCacheSpec authentication = new AuthenticationCacheSpec();
+
+
+	public CacheSpec getPages() {
+		return pages;
+	}
+
+	public void setPages(CacheSpec pages) {
+		this.pages = pages;
+	}
+
+	public CacheSpec getPageLists() {
+		return pageLists;
+	}
+
+	public void setPageLists(CacheSpec pageLists) {
+		this.pageLists = pageLists;
+	}
+
+	public CacheSpec getProperties() {
+		return properties;
+	}
+
+	public void setProperties(CacheSpec properties) {
+		this.properties = properties;
+	}
+
+	public CacheSpec getHtml() {
+		return html;
+	}
+
+	public void setHtml(CacheSpec html) {
+		this.html = html;
+	}
+
+	public CacheSpec getGroups() {
+		return groups;
+	}
+
+	public void setGroups(CacheSpec groups) {
+		this.groups = groups;
+	}
+
+	public CacheSpec getFullPage() {
+		return fullPage;
+	}
+
+	public void setFullPage(CacheSpec fullPage) {
+		this.fullPage = fullPage;
+	}
+
+	public CacheSpec getRendered() {
+		return rendered;
+	}
+
+	public void setRendered(CacheSpec rendered) {
+		this.rendered = rendered;
+	}
+
+	public CacheSpec getRevalidation() {
+		return revalidation;
+	}
+
+	public void setRevalidation(CacheSpec revalidation) {
+		this.revalidation = revalidation;
+	}
+
+	public AttachmentsCacheSpec getAttachments() {
+		return attachments;
+	}
+
+	public void setAttachments(AttachmentsCacheSpec attachments) {
+		this.attachments = attachments;
+	}
+
+	public AuthenticationCacheSpec getAuthentication() {
+		return authentication;
+	}
+
+	public void setAuthentication(AuthenticationCacheSpec authentication) {
+		this.authentication = authentication;
+	}
+}
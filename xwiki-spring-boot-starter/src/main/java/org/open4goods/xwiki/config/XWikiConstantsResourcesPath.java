@@ -1,6 +1,12 @@
 package org.open4goods.xwiki.config;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
 /**
  * handles path for endpoints
@@ -135,6 +141,31 @@ public class XWikiConstantsResourcesPath {
 				
 	}
 	
+	/**
+	 * returns the download url of an attachment, from its decoded path segments (spaces..., page, attachment name)
+	 * Each segment is checked then encoded, so the url can only target an attachment below the download path
+	 * @param segments decoded segments, at least a space, a page and an attachment name
+	 * @return the encoded url
+	 * @throws IllegalArgumentException on a missing, empty, '.' or '..' segment
+	 */
+	public URI getDownloadAttachmentUri(List<String> segments) {
+		if (segments == null || segments.size() < 3) {
+			throw new IllegalArgumentException("Attachment path needs a space, a page and a file: " + segments);
+		}
+		StringBuilder url = new StringBuilder(getDownloadpath());
+		for (int i = 0; i < segments.size(); i++) {
+			String segment = segments.get(i);
+			if (segment == null || segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+				throw new IllegalArgumentException("Invalid attachment path segment in: " + segments);
+			}
+			if (i > 0) {
+				url.append(URI_SEPARATOR);
+			}
+			url.append(UriUtils.encodePathSegment(segment, StandardCharsets.UTF_8));
+		}
+		return URI.create(url.toString());
+	}
+	
 	/**
 	 * Return endpoint to wiki
 	 * returned path ends with '/' 
@@ -217,6 +248,7 @@ public class XWikiConstantsResourcesPath {
 		return getApiEntryPoint() +
 				URI_SEPARATOR +
 				WIKIS_PATH +
+				URI_SEPARATOR +
 				QUERY_USERS;
 	}
 	
@@ -269,4 +301,31 @@ public class XWikiConstantsResourcesPath {
 				URI_SEPARATOR +
 				CURRENT_USER_GROUPS_PATH;
 	}
+	
+	/**
+	 * Rest query of the groups having 'userName' as member (local or global reference)
+	 * The query values are fully encoded ('&', '+', '%', '#'... included), the uri must not be decoded again
+	 * @param userName
+	 * @param media 'media' query param, none if null
+	 * @return
+	 */
+	public URI getUserGroupsQueryEndpoint( String userName, String media ) {
+		// xwql literal
+		String member = ADMIN_SPACE + "." + userName.replace("'", "''");
+		String xwql = "where doc.object(" + GROUPS_CLASNAME + ").member in ('" + member + "', '" + getWikiName() + ":" + member + "')";
+		UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(getApiEntryPoint() +
+				URI_SEPARATOR +
+				WIKIS_PATH +
+				URI_SEPARATOR +
+				getWikiName() +
+				URI_SEPARATOR +
+				"query")
+				.queryParam("type", "xwql")
+				// uri variable: strictly encoded, unlike literal query values
+				.queryParam("q", "{q}");
+		if( media == null ) {
+			return builder.encode().buildAndExpand(xwql).toUri();
+		}
+		return builder.queryParam("media", "{media}").encode().buildAndExpand(xwql, media).toUri();
+	}
 }
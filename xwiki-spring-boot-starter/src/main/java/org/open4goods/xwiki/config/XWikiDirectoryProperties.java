@@ -0,0 +1,34 @@
+package org.open4goods.xwiki.config;
+
+import java.time.Duration;
+
+/**
+ * Users and groups directory properties, under 'xwiki.directory'
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiDirectoryProperties {
+
+	// users and groups are loaded in memory and kept in sync in background
+	private boolean enabled = false;
+
+	// delay between two syncs, only the groups modified since the previous one are fetched again
+	private Duration refreshInterval = Duration.ofMinutes(5);
+
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public Duration getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	public void setRefreshInterval(Duration refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+}
@@ -0,0 +1,97 @@
+package org.open4goods.xwiki.config;
+
+import java.time.Duration;
+
+/**
+ * Page fetching properties, under 'xwiki.fetch'
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiFetchProperties {
+
+	/**
+	 * How 'Page' fields disabled by default (objects, attachments, class) are fetched
+	 */
+	public enum PageFetchMode {
+		// one request per page, fields requested with ?objects=true&attachments=true&class=true
+		SINGLE_REQUEST,
+		// one request for the page, then one request per field (objects, attachments)
+		PER_FIELD
+	}
+
+	/**
+	 * How the html of a page is fetched from xwiki
+	 */
+	public enum HtmlFetchMode {
+		// full /bin/view page, the content block being extracted from the skin
+		PAGE,
+		// content only, rendered without the skin ('plainQuery' added to /bin/view), PAGE if not supported by the server
+		PLAIN
+	}
+
+	private PageFetchMode pageMode = PageFetchMode.SINGLE_REQUEST;
+
+	// default html fetch mode, could be chosen per call
+	private HtmlFetchMode htmlMode = HtmlFetchMode.PAGE;
+
+	// query asking xwiki for the content only (or a content view sheet)
+	private String plainQuery = "xpage=plain";
+
+	// PLAIN not used during this delay once the server answered with the full skin, then tried again
+	private Duration plainRetryDelay = Duration.ofMinutes(10);
+
+	// max concurrent requests to the xwiki server for multi-page reads
+	private int maxConcurrency = 8;
+
+	// run parallel requests on virtual threads (false: on a fixed pool of 'maxConcurrency' threads)
+	private boolean virtualThreads = true;
+
+
+	public PageFetchMode getPageMode() {
+		return pageMode;
+	}
+
+	public void setPageMode(PageFetchMode pageMode) {
+		this.pageMode = pageMode;
+	}
+
+	public HtmlFetchMode getHtmlMode() {
+		return htmlMode;
+	}
+
+	public void setHtmlMode(HtmlFetchMode htmlMode) {
+		this.htmlMode = htmlMode;
+	}
+
+	public String getPlainQuery() {
+		return plainQuery;
+	}
+
+	public void setPlainQuery(String plainQuery) {
+		this.plainQuery = plainQuery;
+	}
+
+	public Duration getPlainRetryDelay() {
+		return plainRetryDelay;
+	}
+
+	public void setPlainRetryDelay(Duration plainRetryDelay) {
+		this.plainRetryDelay = plainRetryDelay;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+}
@@ -0,0 +1,55 @@
+package org.open4goods.xwiki.config;
+
+/**
+ * Html post-processing properties, under 'xwiki.html'
+ * Built-in stages of the rewriter chain applied to the fetched and rendered html
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiHtmlProperties {
+
+	// xwiki links in https when httpsOnly
+	private boolean fixScheme = true;
+
+	// attachments links (/bin/download) to the /wiki-files proxy
+	private boolean proxyAttachments = true;
+
+	// application route of the xwiki pages, /bin/view links are mapped to it (null: links kept)
+	private String viewRoute;
+
+	// loading="lazy" and decoding="async" on images, the first one and those setting loading / fetchpriority excepted
+	private boolean lazyImages = false;
+
+
+	public boolean isFixScheme() {
+		return fixScheme;
+	}
+
+	public void setFixScheme(boolean fixScheme) {
+		this.fixScheme = fixScheme;
+	}
+
+	public boolean isProxyAttachments() {
+		return proxyAttachments;
+	}
+
+	public void setProxyAttachments(boolean proxyAttachments) {
+		this.proxyAttachments = proxyAttachments;
+	}
+
+	public String getViewRoute() {
+		return viewRoute;
+	}
+
+	public void setViewRoute(String viewRoute) {
+		this.viewRoute = viewRoute;
+	}
+
+	public boolean isLazyImages() {
+		return lazyImages;
+	}
+
+	public void setLazyImages(boolean lazyImages) {
+		this.lazyImages = lazyImages;
+	}
+}
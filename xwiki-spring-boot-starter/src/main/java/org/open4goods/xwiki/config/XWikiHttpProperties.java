@@ -0,0 +1,135 @@
+package org.open4goods.xwiki.config;
+
+import java.time.Duration;
+
+/**
+ * Http transport properties, under 'xwiki.http'
+ * Shared by the rest, web and login templates
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiHttpProperties {
+
+	// max pooled connections, all routes included
+	private int maxConnections = 100;
+
+	// max pooled connections to a single route (the xwiki server is usually the only one)
+	private int maxConnectionsPerRoute = 50;
+
+	// timeout to establish the tcp connection
+	private Duration connectTimeout = Duration.ofSeconds(5);
+
+	// timeout waiting for response data (socket read)
+	private Duration readTimeout = Duration.ofSeconds(30);
+
+	// timeout waiting for a free connection in the pool
+	private Duration connectionRequestTimeout = Duration.ofSeconds(10);
+
+	// how long an idle connection is kept alive when the server does not say
+	private Duration keepAlive = Duration.ofMinutes(1);
+
+	// idle connections older than this are evicted from the pool
+	private Duration idleEviction = Duration.ofSeconds(30);
+
+	// rest responses are parsed straight from the response stream (false: read as String first)
+	private boolean streaming = true;
+
+	// concurrent identical requests share a single upstream call
+	private boolean coalescing = true;
+
+	// max distinct requests tracked in flight, requests beyond are not coalesced
+	private int maxInFlight = 1000;
+
+	// rest requests are conditional (If-None-Match / If-Modified-Since) when validators are known, a 304 reuses the parsed object
+	// (kept under 'xwiki.cache.revalidation')
+	private boolean revalidation = true;
+
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public Duration getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(Duration connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public Duration getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(Duration readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public Duration getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+
+	public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+		this.connectionRequestTimeout = connectionRequestTimeout;
+	}
+
+	public Duration getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(Duration keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public Duration getIdleEviction() {
+		return idleEviction;
+	}
+
+	public void setIdleEviction(Duration idleEviction) {
+		this.idleEviction = idleEviction;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public boolean isRevalidation() {
+		return revalidation;
+	}
+
+	public void setRevalidation(boolean revalidation) {
+		this.revalidation = revalidation;
+	}
+}
@@ -0,0 +1,82 @@
+package org.open4goods.xwiki.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Attachments proxy properties, under 'xwiki.proxy'
+ * The proxy serves the attachments links rewritten to /wiki-files
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiProxyProperties {
+
+	// the /wiki-files endpoint is registered (servlet web applications only)
+	private boolean enabled = false;
+
+	// attachments paths (relative to /wiki-files, ant patterns) served by the proxy, others are 404
+	// empty by default: nothing is served until the exposed spaces are listed (ex: /Blog/**)
+	private List<String> allowedPaths = new ArrayList<>();
+
+	// Cache-Control max-age sent to browsers and CDNs
+	private Duration maxAge = Duration.ofHours(1);
+
+	// Cache-Control public (true, shared caches and CDNs may store the attachments) or private (default)
+	private boolean publicCache = false;
+
+	// ETags of the attachments are trusted this long, a matching If-None-Match is answered 304 without requesting xwiki
+	private Duration metadataTtl = Duration.ofMinutes(10);
+
+	// max attachments with known metadata
+	private long metadataMaxEntries = 10000;
+
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public List<String> getAllowedPaths() {
+		return allowedPaths;
+	}
+
+	public void setAllowedPaths(List<String> allowedPaths) {
+		this.allowedPaths = allowedPaths;
+	}
+
+	public Duration getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(Duration maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public boolean isPublicCache() {
+		return publicCache;
+	}
+
+	public void setPublicCache(boolean publicCache) {
+		this.publicCache = publicCache;
+	}
+
+	public Duration getMetadataTtl() {
+		return metadataTtl;
+	}
+
+	public void setMetadataTtl(Duration metadataTtl) {
+		this.metadataTtl = metadataTtl;
+	}
+
+	public long getMetadataMaxEntries() {
+		return metadataMaxEntries;
+	}
+
+	public void setMetadataMaxEntries(long metadataMaxEntries) {
+		this.metadataMaxEntries = metadataMaxEntries;
+	}
+}
@@ -0,0 +1,22 @@
+package org.open4goods.xwiki.config;
+
+/**
+ * Rendering properties, under 'xwiki.rendering'
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiRenderingProperties {
+
+	// FullPage html rendered locally from the page content instead of requesting /bin/view
+	// (requires the xwiki rendering syntax modules on the classpath, falls back to /bin/view on failure)
+	private boolean local = false;
+
+
+	public boolean isLocal() {
+		return local;
+	}
+
+	public void setLocal(boolean local) {
+		this.local = local;
+	}
+}
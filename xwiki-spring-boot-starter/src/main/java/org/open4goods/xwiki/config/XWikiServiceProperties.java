@@ -15,8 +15,18 @@ import jakarta.validation.constraints.NotNull;
 @Validated
 public class XWikiServiceProperties{
 	
-	// TODO : Critical : Must be configurable in config
+	/**
+	 * @deprecated the services use one cache per operation, see xwiki.cache
+	 */
+	@Deprecated
 	public final static String SPRING_CACHE_NAME = "ONE_HOUR_LOCAL_CACHE";
+
+	// caches names, configured under 'xwiki.cache'
+	public final static String PAGES_CACHE_NAME = "xwiki-pages";
+	public final static String PAGE_LISTS_CACHE_NAME = "xwiki-page-lists";
+	public final static String PROPERTIES_CACHE_NAME = "xwiki-properties";
+	public final static String HTML_CACHE_NAME = "xwiki-html";
+	public final static String GROUPS_CACHE_NAME = "xwiki-groups";
 	
 	@NotNull
 	public String baseUrl;
@@ -39,6 +49,94 @@ public class XWikiServiceProperties{
 	@NotNull
 	public String apiWiki = "xwiki";
 
+	// http transport (connection pool, timeouts)
+	public XWikiHttpProperties http = new XWikiHttpProperties();
+
+	// page fetching (embedded fields)
+	public XWikiFetchProperties fetch = new XWikiFetchProperties();
+
+	// caches
+	public XWikiCacheProperties cache = new XWikiCacheProperties();
+
+	// /wiki-files attachments proxy
+	public XWikiProxyProperties proxy = new XWikiProxyProperties();
+
+	// local rendering
+	public XWikiRenderingProperties rendering = new XWikiRenderingProperties();
+
+	// html post-processing
+	public XWikiHtmlProperties html = new XWikiHtmlProperties();
+
+	// login
+	public XWikiAuthenticationProperties authentication = new XWikiAuthenticationProperties();
+
+	// in-memory users and groups
+	public XWikiDirectoryProperties directory = new XWikiDirectoryProperties();
+
+
+	public XWikiHttpProperties getHttp() {
+		return http;
+	}
+
+	public void setHttp(XWikiHttpProperties http) {
+		this.http = http;
+	}
+
+	public XWikiFetchProperties getFetch() {
+		return fetch;
+	}
+
+	public void setFetch(XWikiFetchProperties fetch) {
+		this.fetch = fetch;
+	}
+
+	public XWikiCacheProperties getCache() {
+		return cache;
+	}
+
+	public void setCache(XWikiCacheProperties cache) {
+		this.cache = cache;
+	}
+
+	public XWikiProxyProperties getProxy() {
+		return proxy;
+	}
+
+	public void setProxy(XWikiProxyProperties proxy) {
+		this.proxy = proxy;
+	}
+
+	public XWikiRenderingProperties getRendering() {
+		return rendering;
+	}
+
+	public void setRendering(XWikiRenderingProperties rendering) {
+		this.rendering = rendering;
+	}
+
+	public XWikiHtmlProperties getHtml() {
+		return html;
+	}
+
+	public void setHtml(XWikiHtmlProperties html) {
+		this.html = html;
+	}
+
+	public XWikiAuthenticationProperties getAuthentication() {
+		return authentication;
+	}
+
+	public void setAuthentication(XWikiAuthenticationProperties authentication) {
+		this.authentication = authentication;
+	}
+
+	public XWikiDirectoryProperties getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(XWikiDirectoryProperties directory) {
+		this.directory = directory;
+	}
 	
 	public String getApiWiki() {
 		return apiWiki;
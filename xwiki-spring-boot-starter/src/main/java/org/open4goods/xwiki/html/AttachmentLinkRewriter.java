@@ -0,0 +1,28 @@
+package org.open4goods.xwiki.html;
+
+import org.open4goods.xwiki.services.XWikiHtmlService;
+
+/**
+ * Attachments links (/bin/download/...) to the /wiki-files proxy
+ *
+ * @author Thierry.Ledan
+ */
+public class AttachmentLinkRewriter extends XWikiUrlRewriter {
+
+	private static final String DOWNLOAD_PATH = "/bin/download/";
+
+	public AttachmentLinkRewriter(String baseUrl) {
+		super(baseUrl);
+	}
+
+	@Override
+	protected String rewrite(XWikiHtmlTag tag, String url) {
+		String attachment = remainder(url, DOWNLOAD_PATH);
+		return attachment == null ? null : XWikiHtmlService.PROXYFIED_FOLDER + "/" + attachment;
+	}
+
+	@Override
+	public int getOrder() {
+		return 200;
+	}
+}
@@ -0,0 +1,29 @@
+package org.open4goods.xwiki.html;
+
+import org.springframework.core.Ordered;
+
+/**
+ * Images loaded lazily and decoded asynchronously
+ * The first image of the content (likely above the fold, the largest paint) and the images which already set
+ * their loading or fetchpriority are left as is
+ *
+ * @author Thierry.Ledan
+ */
+public class LazyImageRewriter implements XWikiHtmlRewriter, Ordered {
+
+	@Override
+	public void rewrite(XWikiHtmlTag tag) {
+		if (! tag.is("img") || tag.getOccurrence() == 0 || tag.hasAttribute("loading") || tag.hasAttribute("fetchpriority")) {
+			return;
+		}
+		tag.setAttribute("loading", "lazy");
+		if (! tag.hasAttribute("decoding")) {
+			tag.setAttribute("decoding", "async");
+		}
+	}
+
+	@Override
+	public int getOrder() {
+		return 400;
+	}
+}
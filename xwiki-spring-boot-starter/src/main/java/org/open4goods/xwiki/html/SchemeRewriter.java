@@ -0,0 +1,28 @@
+package org.open4goods.xwiki.html;
+
+/**
+ * Links to the xwiki server in https (httpsOnly), xwiki behind a proxy often renders them in http
+ *
+ * @author Thierry.Ledan
+ */
+public class SchemeRewriter extends XWikiUrlRewriter {
+
+	private final String httpBaseUrl;
+	private final String httpsBaseUrl;
+
+	public SchemeRewriter(String baseUrl) {
+		super(baseUrl);
+		this.httpsBaseUrl = this.baseUrl.replaceFirst("^http:", "https:");
+		this.httpBaseUrl = this.httpsBaseUrl.replaceFirst("^https:", "http:");
+	}
+
+	@Override
+	protected String rewrite(XWikiHtmlTag tag, String url) {
+		return url.startsWith(httpBaseUrl) ? httpsBaseUrl + url.substring(httpBaseUrl.length()) : null;
+	}
+
+	@Override
+	public int getOrder() {
+		return 100;
+	}
+}
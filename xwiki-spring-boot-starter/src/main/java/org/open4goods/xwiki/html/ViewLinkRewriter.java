@@ -0,0 +1,37 @@
+package org.open4goods.xwiki.html;
+
+/**
+ * Links to xwiki pages (/bin/view/Space/Page) to the application routes ('viewRoute' + Space/Page)
+ *
+ * @author Thierry.Ledan
+ */
+public class ViewLinkRewriter extends XWikiUrlRewriter {
+
+	private static final String VIEW_PATH = "/bin/view/";
+
+	private final String viewRoute;
+
+	/**
+	 *
+	 * @param baseUrl
+	 * @param viewRoute application route of the pages ('/wiki/'...)
+	 */
+	public ViewLinkRewriter(String baseUrl, String viewRoute) {
+		super(baseUrl);
+		this.viewRoute = viewRoute.endsWith("/") ? viewRoute : viewRoute + "/";
+	}
+
+	@Override
+	protected String rewrite(XWikiHtmlTag tag, String url) {
+		if (! tag.is("a")) {
+			return null;
+		}
+		String page = remainder(url, VIEW_PATH);
+		return page == null ? null : viewRoute + page;
+	}
+
+	@Override
+	public int getOrder() {
+		return 300;
+	}
+}
@@ -0,0 +1,18 @@
+package org.open4goods.xwiki.html;
+
+/**
+ * A stage of the html post-processing chain (see {@link XWikiHtmlRewriterChain})
+ * Called for each start tag of the content, it updates the tag in place (attributes)
+ * Stages declared as beans are added to the chain, ordered with @Order or {@link org.springframework.core.Ordered}
+ * (after the built-in ones by default)
+ *
+ * @author Thierry.Ledan
+ */
+public interface XWikiHtmlRewriter {
+
+	/**
+	 * Rewrite 'tag' if needed
+	 * @param tag start tag, attribute values as written in the html (entities not decoded)
+	 */
+	void rewrite(XWikiHtmlTag tag);
+}
@@ -0,0 +1,207 @@
+package org.open4goods.xwiki.html;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.open4goods.xwiki.config.XWikiHtmlProperties;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+
+/**
+ * Ordered html post-processing stages, applied in a single pass over a content fragment
+ * Each start tag is parsed once and handed to every stage, text, end tags, comments, scripts and styles
+ * are copied as is. Unchanged tags are copied from the source, so an untouched fragment is copied once
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiHtmlRewriterChain {
+
+	private final List<XWikiHtmlRewriter> stages;
+
+	/**
+	 *
+	 * @param stages sorted with their @Order / Ordered
+	 */
+	public XWikiHtmlRewriterChain(List<XWikiHtmlRewriter> stages) {
+		List<XWikiHtmlRewriter> sorted = new ArrayList<>(stages);
+		AnnotationAwareOrderComparator.sort(sorted);
+		this.stages = List.copyOf(sorted);
+	}
+
+	/**
+	 * The built-in stages enabled under 'xwiki.html'
+	 * @param properties
+	 * @return
+	 */
+	public static List<XWikiHtmlRewriter> builtInStages(XWikiServiceProperties properties) {
+		XWikiHtmlProperties html = properties.getHtml();
+		List<XWikiHtmlRewriter> stages = new ArrayList<>();
+		if (html.isFixScheme() && properties.isHttpsOnly()) {
+			stages.add(new SchemeRewriter(properties.getBaseUrl()));
+		}
+		if (html.isProxyAttachments()) {
+			stages.add(new AttachmentLinkRewriter(properties.getBaseUrl()));
+		}
+		if (html.getViewRoute() != null) {
+			stages.add(new ViewLinkRewriter(properties.getBaseUrl(), html.getViewRoute()));
+		}
+		if (html.isLazyImages()) {
+			stages.add(new LazyImageRewriter());
+		}
+		return stages;
+	}
+
+	public List<XWikiHtmlRewriter> getStages() {
+		return stages;
+	}
+
+	/**
+	 * Apply the stages to 'html'
+	 * @param html
+	 * @return the rewritten html, null if 'html' is null
+	 */
+	public String rewrite(String html) {
+
+		if (html == null || stages.isEmpty()) {
+			return html;
+		}
+		int length = html.length();
+		StringBuilder out = new StringBuilder(length + 256);
+		// start tags seen, by name
+		Map<String, Integer> occurrences = new HashMap<>();
+		int i = 0;
+		while (i < length) {
+			int lt = html.indexOf('<', i);
+			if (lt == -1) {
+				out.append(html, i, length);
+				break;
+			}
+			out.append(html, i, lt);
+
+			if (html.startsWith("<!--", lt)) {
+				i = end(html, html.indexOf("-->", lt + 4), 3);
+				out.append(html, lt, i);
+				continue;
+			}
+			if (lt + 1 == length || ! Character.isLetter(html.charAt(lt + 1))) {
+				// end tag, doctype, or a lone '<'
+				i = end(html, html.indexOf('>', lt + 1), 1);
+				out.append(html, lt, i);
+				continue;
+			}
+
+			int tagEnd = tagEnd(html, lt);
+			XWikiHtmlTag tag = parse(html, lt, tagEnd, occurrences);
+			for (XWikiHtmlRewriter stage : stages) {
+				stage.rewrite(tag);
+			}
+			if (tag.isModified()) {
+				out.append(tag.toHtml());
+			} else {
+				out.append(html, lt, tagEnd);
+			}
+			i = tagEnd;
+
+			if (tag.is("script") || tag.is("style")) {
+				// raw text, copied up to its end tag
+				int close = indexOfIgnoreCase(html, "</" + tag.getName(), i);
+				int rawEnd = close == -1 ? length : close;
+				out.append(html, i, rawEnd);
+				i = rawEnd;
+			}
+		}
+		return out.toString();
+	}
+
+	private static int end(String html, int index, int tokenLength) {
+		return index == -1 ? html.length() : index + tokenLength;
+	}
+
+	/**
+	 * @return index after the '>' closing the tag starting at 'start', quoted values skipped
+	 */
+	private static int tagEnd(String html, int start) {
+		char quote = 0;
+		for (int i = start + 1; i < html.length(); i++) {
+			char c = html.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i + 1;
+			}
+		}
+		return html.length();
+	}
+
+	private static XWikiHtmlTag parse(String html, int start, int end, Map<String, Integer> occurrences) {
+		int i = start + 1;
+		int last = html.charAt(end - 1) == '>' ? end - 1 : end;
+		int nameStart = i;
+		while (i < last && isNameChar(html.charAt(i))) {
+			i++;
+		}
+		String name = html.substring(nameStart, i).toLowerCase();
+		boolean selfClosing = last > i && html.charAt(last - 1) == '/';
+		XWikiHtmlTag tag = new XWikiHtmlTag(name, selfClosing, occurrences.merge(name, 1, Integer::sum) - 1);
+
+		while (i < last) {
+			char c = html.charAt(i);
+			if (Character.isWhitespace(c) || c == '/') {
+				i++;
+				continue;
+			}
+			int attributeStart = i;
+			while (i < last && ! Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '=' && html.charAt(i) != '>'
+					&& ! (html.charAt(i) == '/' && i + 1 == last)) {
+				i++;
+			}
+			String attribute = html.substring(attributeStart, i);
+			while (i < last && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			if (i >= last || html.charAt(i) != '=') {
+				tag.parsedAttribute(attribute, null);
+				continue;
+			}
+			i++;
+			while (i < last && Character.isWhitespace(html.charAt(i))) {
+				i++;
+			}
+			String value;
+			if (i < last && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+				char quote = html.charAt(i);
+				int close = html.indexOf(quote, i + 1);
+				close = close == -1 || close > last ? last : close;
+				value = html.substring(i + 1, close);
+				i = close + 1;
+			} else {
+				int valueStart = i;
+				while (i < last && ! Character.isWhitespace(html.charAt(i))) {
+					i++;
+				}
+				value = html.substring(valueStart, i);
+			}
+			tag.parsedAttribute(attribute, value);
+		}
+		return tag;
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == ':';
+	}
+
+	private static int indexOfIgnoreCase(String html, String token, int from) {
+		for (int i = from; i <= html.length() - token.length(); i++) {
+			if (html.regionMatches(true, i, token, 0, token.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,95 @@
+package org.open4goods.xwiki.html;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A start tag of the html being rewritten, with its attributes in order
+ * The tag is written back only if an attribute was changed, the original text being kept otherwise
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiHtmlTag {
+
+	private final String name;
+	// lower case name -> raw value, null for an attribute without value
+	private final Map<String, String> attributes = new LinkedHashMap<>();
+	private final boolean selfClosing;
+	// rank among the start tags of the same name in the fragment, from 0
+	private final int occurrence;
+	private boolean modified;
+
+	XWikiHtmlTag(String name, boolean selfClosing, int occurrence) {
+		this.name = name;
+		this.selfClosing = selfClosing;
+		this.occurrence = occurrence;
+	}
+
+	void parsedAttribute(String name, String value) {
+		attributes.putIfAbsent(name.toLowerCase(), value);
+	}
+
+	/**
+	 * @return lower case tag name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public boolean is(String tagName) {
+		return name.equals(tagName);
+	}
+
+	/**
+	 * @return 0 for the first tag of this name in the fragment, 1 for the second...
+	 */
+	public int getOccurrence() {
+		return occurrence;
+	}
+
+	public boolean hasAttribute(String attribute) {
+		return attributes.containsKey(attribute);
+	}
+
+	/**
+	 * @param attribute lower case attribute name
+	 * @return the raw value, null if missing or without value
+	 */
+	public String getAttribute(String attribute) {
+		return attributes.get(attribute);
+	}
+
+	public void setAttribute(String attribute, String value) {
+		boolean present = attributes.containsKey(attribute);
+		String previous = attributes.put(attribute, value);
+		if (! present || ! Objects.equals(previous, value)) {
+			modified = true;
+		}
+	}
+
+	public void removeAttribute(String attribute) {
+		if (attributes.containsKey(attribute)) {
+			attributes.remove(attribute);
+			modified = true;
+		}
+	}
+
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * @return the tag as html, attribute values double quoted
+	 */
+	public String toHtml() {
+		StringBuilder html = new StringBuilder(32 + 32 * attributes.size()).append('<').append(name);
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			html.append(' ').append(attribute.getKey());
+			if (attribute.getValue() != null) {
+				html.append("=\"").append(attribute.getValue().replace("\"", "&quot;")).append('"');
+			}
+		}
+		return html.append(selfClosing ? "/>" : ">").toString();
+	}
+}
@@ -0,0 +1,69 @@
+package org.open4goods.xwiki.html;
+
+import java.net.URI;
+
+import org.springframework.core.Ordered;
+
+/**
+ * Base of the built-in stages rewriting the xwiki urls of the link attributes (href, src)
+ * Urls are matched absolute (base url) or relative to the server (base url path)
+ *
+ * @author Thierry.Ledan
+ */
+abstract class XWikiUrlRewriter implements XWikiHtmlRewriter, Ordered {
+
+	protected static final String[] URL_ATTRIBUTES = { "href", "src" };
+
+	protected final String baseUrl;
+	protected final String basePath;
+
+	protected XWikiUrlRewriter(String baseUrl) {
+		this.baseUrl = baseUrl == null ? "" : trimSlash(baseUrl);
+		String path = null;
+		try {
+			path = URI.create(this.baseUrl).getPath();
+		} catch (IllegalArgumentException e) {
+			// relative links only
+		}
+		this.basePath = path == null ? "" : trimSlash(path);
+	}
+
+	@Override
+	public void rewrite(XWikiHtmlTag tag) {
+		for (String attribute : URL_ATTRIBUTES) {
+			String url = tag.getAttribute(attribute);
+			if (url != null) {
+				String rewritten = rewrite(tag, url);
+				if (rewritten != null) {
+					tag.setAttribute(attribute, rewritten);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param tag
+	 * @param url
+	 * @return the rewritten url, null to keep it
+	 */
+	protected abstract String rewrite(XWikiHtmlTag tag, String url);
+
+	/**
+	 * @param url
+	 * @param xwikiPath path under the base url ('/bin/download/')
+	 * @return 'url' after 'xwikiPath', null if 'url' is not under it
+	 */
+	protected String remainder(String url, String xwikiPath) {
+		if (! baseUrl.isEmpty() && url.startsWith(baseUrl + xwikiPath)) {
+			return url.substring(baseUrl.length() + xwikiPath.length());
+		}
+		if (url.startsWith(basePath + xwikiPath)) {
+			return url.substring(basePath.length() + xwikiPath.length());
+		}
+		return null;
+	}
+
+	private static String trimSlash(String value) {
+		return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+	}
+}
@@ -0,0 +1,172 @@
+package org.open4goods.xwiki.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * An attachment streamed from the xwiki server, with its metadata
+ * The body is read straight from the xwiki connection, never buffered as a whole:
+ * the stream must be closed (try-with-resources) to release the connection
+ */
+public class AttachmentStream implements Closeable {
+
+	// copy buffer, the only memory used whatever the attachment size
+	public static final int BUFFER_SIZE = 8192;
+
+	// client request headers passed through to xwiki
+	public static final List<String> FORWARDED_HEADERS = List.of(HttpHeaders.RANGE, HttpHeaders.IF_RANGE, HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE);
+
+	private final ClientHttpResponse response;
+
+	private final int status;
+	// -1 if unknown
+	private final long contentLength;
+	private final String contentType;
+	private final String etag;
+	// -1 if unknown
+	private final long lastModified;
+	// set on partial content (206) responses
+	private final String contentRange;
+	private final String acceptRanges;
+
+	public AttachmentStream(ClientHttpResponse response) throws IOException {
+		this.response = response;
+		HttpHeaders headers = response.getHeaders();
+		this.status = response.getStatusCode().value();
+		this.contentLength = headers.getContentLength();
+		this.contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+		this.etag = headers.getETag();
+		this.lastModified = headers.getLastModified();
+		this.contentRange = headers.getFirst(HttpHeaders.CONTENT_RANGE);
+		this.acceptRanges = headers.getFirst(HttpHeaders.ACCEPT_RANGES);
+	}
+
+	/**
+	 * The client headers to pass through to xwiki (Range, conditional headers)
+	 * @param request client request
+	 * @return
+	 */
+	public static HttpHeaders forwardedHeaders(HttpServletRequest request) {
+		HttpHeaders headers = new HttpHeaders();
+		for (String name : FORWARDED_HEADERS) {
+			String value = request.getHeader(name);
+			if (value != null) {
+				headers.add(name, value);
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * @return the response body, to be read once
+	 * @throws IOException
+	 */
+	public InputStream getInputStream() throws IOException {
+		return response.getBody();
+	}
+
+	/**
+	 * Copy the body to 'out' with a fixed size buffer
+	 * @param out
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		if (! hasBody()) {
+			return 0;
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long copied = 0;
+		InputStream in = getInputStream();
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			copied += read;
+		}
+		out.flush();
+		return copied;
+	}
+
+	/**
+	 * Write status, metadata headers and body to a servlet response
+	 * @param servletResponse
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public long writeTo(HttpServletResponse servletResponse) throws IOException {
+		servletResponse.setStatus(status);
+		if (contentType != null) {
+			servletResponse.setContentType(contentType);
+		}
+		if (contentLength >= 0) {
+			servletResponse.setContentLengthLong(contentLength);
+		}
+		if (etag != null) {
+			servletResponse.setHeader(HttpHeaders.ETAG, etag);
+		}
+		if (lastModified >= 0) {
+			servletResponse.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+		}
+		if (contentRange != null) {
+			servletResponse.setHeader(HttpHeaders.CONTENT_RANGE, contentRange);
+		}
+		if (acceptRanges != null) {
+			servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, acceptRanges);
+		}
+		return transferTo(servletResponse.getOutputStream());
+	}
+
+	/**
+	 * @return false for 304 Not Modified and 416 Range Not Satisfiable responses
+	 */
+	public boolean hasBody() {
+		return status != HttpStatus.NOT_MODIFIED.value() && status != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value();
+	}
+
+	public boolean isPartial() {
+		return status == HttpStatus.PARTIAL_CONTENT.value();
+	}
+
+	@Override
+	public void close() {
+		response.close();
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getContentRange() {
+		return contentRange;
+	}
+
+	public String getAcceptRanges() {
+		return acceptRanges;
+	}
+}
@@ -1,13 +1,26 @@
 package org.open4goods.xwiki.model;
 
+import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.xwiki.rest.model.jaxb.Objects;
 import org.xwiki.rest.model.jaxb.Page;
 
+/**
+ * A page with its html rendering and properties
+ * Cached as a single entry per page reference and locale, tagged with the page version
+ */
 public class FullPage {
 
+	// page reference (Space.SubSpace.Page) and translation
+	private String reference;
+	private Locale locale;
+	// version and modification date of the page when the entry was built
+	private String version;
+	private Calendar modified;
+
 	private String htmlContent;
 	private Page wikiPage;
 	private Objects objects;
@@ -20,6 +33,30 @@ public class FullPage {
 	
 	
 	
+	public String getReference() {
+		return reference;
+	}
+	public void setReference(String reference) {
+		this.reference = reference;
+	}
+	public Locale getLocale() {
+		return locale;
+	}
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+	}
+	public String getVersion() {
+		return version;
+	}
+	public void setVersion(String version) {
+		this.version = version;
+	}
+	public Calendar getModified() {
+		return modified;
+	}
+	public void setModified(Calendar modified) {
+		this.modified = modified;
+	}
 	public String getHtmlContent() {
 		return htmlContent;
 	}
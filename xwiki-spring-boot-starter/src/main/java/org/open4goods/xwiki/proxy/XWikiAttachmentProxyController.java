@@ -0,0 +1,259 @@
+package org.open4goods.xwiki.proxy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.open4goods.xwiki.cache.XWikiAttachmentDiskCache;
+import org.open4goods.xwiki.config.XWikiProxyProperties;
+import org.open4goods.xwiki.model.AttachmentStream;
+import org.open4goods.xwiki.services.XWikiHtmlService;
+import org.open4goods.xwiki.services.XwikiFacadeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriUtils;
+import org.springframework.web.util.UrlPathHelper;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the xwiki attachments under {@link XWikiHtmlService#PROXYFIED_FOLDER}, the folder the html
+ * download links are rewritten to.
+ * Attachments are streamed, with Content-Type, Content-Length, ETag and Cache-Control headers.
+ * The ETag of the served attachments are kept for a while, so a matching If-None-Match is answered 304
+ * without requesting xwiki.
+ * With the disk cache, attachments are stored locally and served with sendfile when the container supports it
+ *
+ * @author Thierry.Ledan
+ */
+@RestController
+public class XWikiAttachmentProxyController {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(XWikiAttachmentProxyController.class);
+
+	private final XwikiFacadeService facadeService;
+	private final XWikiProxyProperties properties;
+	// stored attachments, null if disabled
+	private final XWikiAttachmentDiskCache diskCache;
+	private final String wiki;
+	private final String cacheControl;
+	private final AntPathMatcher pathMatcher = new AntPathMatcher();
+	// raw (encoded) request path: decoded segment by segment, an encoded '/' stays in its segment
+	private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+	// attachment path -> ETag, from the last response of xwiki
+	private final Cache<String, String> etags;
+
+	public XWikiAttachmentProxyController(XwikiFacadeService facadeService, XWikiProxyProperties properties) {
+		this(facadeService, properties, null, null);
+	}
+
+	/**
+	 *
+	 * @param facadeService
+	 * @param properties
+	 * @param diskCache on-disk attachments store, null to always request xwiki
+	 * @param wiki wiki the attachments belong to
+	 */
+	public XWikiAttachmentProxyController(XwikiFacadeService facadeService, XWikiProxyProperties properties, XWikiAttachmentDiskCache diskCache, String wiki) {
+		this.facadeService = facadeService;
+		this.properties = properties;
+		this.diskCache = diskCache;
+		this.wiki = wiki;
+		this.urlPathHelper.setUrlDecode(false);
+		CacheControl control = CacheControl.maxAge(properties.getMaxAge());
+		this.cacheControl = (properties.isPublicCache() ? control.cachePublic() : control.cachePrivate()).getHeaderValue();
+		this.etags = Caffeine.newBuilder()
+				.maximumSize(properties.getMetadataMaxEntries())
+				.expireAfterWrite(properties.getMetadataTtl())
+				.build();
+	}
+
+	@GetMapping(XWikiHtmlService.PROXYFIED_FOLDER + "/**")
+	public void attachment(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		List<String> segments = segments(urlPathHelper.getPathWithinApplication(request).substring(XWikiHtmlService.PROXYFIED_FOLDER.length()));
+		String path = segments == null ? null : "/" + String.join("/", segments);
+		if (path == null || ! isAllowed(path)) {
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+
+		// fresh local metadata: no need to ask xwiki
+		String etag = etags.getIfPresent(path);
+		if (etag != null && matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+			notModified(response, etag);
+			return;
+		}
+
+		try {
+			// ranges are passed through to xwiki
+			if (diskCache != null && request.getHeader(HttpHeaders.RANGE) == null && serveFromDisk(path, segments, request, response)) {
+				return;
+			}
+			proxy(path, segments, AttachmentStream.forwardedHeaders(request), response);
+		} catch (IOException e) {
+			// mostly client aborts
+			LOGGER.debug("Unable to proxy attachment {} - error:{}", path, e.getMessage());
+		}
+	}
+
+	/**
+	 * Serve the attachment from the disk cache, after storing or revalidating it if needed
+	 * Only an explicit 404 evicts the stored copy, it is still served while xwiki is unreachable
+	 * @return false if the attachment can not be served from disk (file gone meanwhile)
+	 */
+	private boolean serveFromDisk(String path, List<String> segments, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		String key = diskKey(path);
+		XWikiAttachmentDiskCache.Entry entry = diskCache.get(key);
+		if (entry == null || ! diskCache.isFresh(entry)) {
+			HttpHeaders conditions = new HttpHeaders();
+			if (entry != null) {
+				conditions.setIfNoneMatch(entry.getEtag());
+			}
+			try (AttachmentStream attachment = facadeService.openAttachment(segments, conditions)) {
+				if (attachment == null) {
+					if (entry == null) {
+						// xwiki unreachable, nothing stored: not a missing file
+						response.sendError(HttpStatus.BAD_GATEWAY.value());
+						return true;
+					}
+					// xwiki unreachable: the stored copy is served, checked again on next request
+					LOGGER.debug("xwiki unreachable, serving stored attachment {}", path);
+				} else if (attachment.getStatus() == HttpStatus.NOT_FOUND.value()) {
+					// attachment removed
+					if (entry != null) {
+						evict(path);
+					}
+					response.sendError(HttpStatus.NOT_FOUND.value());
+					return true;
+				} else if (entry != null && attachment.getStatus() == HttpStatus.NOT_MODIFIED.value()) {
+					diskCache.revalidated(entry);
+				} else if (diskCache.accepts(attachment)) {
+					entry = diskCache.store(key, attachment);
+				} else {
+					// not storable (unknown length, too big...), streamed as is
+					writeAttachment(path, attachment, response);
+					return true;
+				}
+			}
+		}
+
+		etags.put(path, entry.getEtag());
+		if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), entry.getEtag())) {
+			notModified(response, entry.getEtag());
+			return true;
+		}
+		if (entry.getContentType() == null) {
+			response.setContentType(facadeService.detectMimeType(path));
+		}
+		response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+		return diskCache.serve(entry, request, response);
+	}
+
+	private void proxy(String path, List<String> segments, HttpHeaders forwarded, HttpServletResponse response) throws IOException {
+		try (AttachmentStream attachment = facadeService.openAttachment(segments, forwarded)) {
+			if (attachment == null) {
+				// xwiki unreachable or failing: not a missing file, which browsers and CDNs could keep
+				response.sendError(HttpStatus.BAD_GATEWAY.value());
+				return;
+			}
+			if (attachment.getStatus() == HttpStatus.NOT_FOUND.value()) {
+				response.sendError(HttpStatus.NOT_FOUND.value());
+				return;
+			}
+			if (attachment.getEtag() != null && (attachment.getStatus() == HttpStatus.OK.value() || attachment.getStatus() == HttpStatus.NOT_MODIFIED.value())) {
+				etags.put(path, attachment.getEtag());
+			}
+			writeAttachment(path, attachment, response);
+		}
+	}
+
+	private void writeAttachment(String path, AttachmentStream attachment, HttpServletResponse response) throws IOException {
+		if (attachment.getContentType() == null) {
+			response.setContentType(facadeService.detectMimeType(path));
+		}
+		response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+		attachment.writeTo(response);
+	}
+
+	private void notModified(HttpServletResponse response, String etag) {
+		response.setStatus(HttpStatus.NOT_MODIFIED.value());
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+	}
+
+	private String diskKey(String path) {
+		return wiki + ":" + path;
+	}
+
+	/**
+	 * Forget the ETag of an attachment (updated attachment)
+	 * @param path attachment path, relative to the proxy folder (/Space/Page/file.pdf)
+	 */
+	public void evict(String path) {
+		etags.invalidate(path);
+		if (diskCache != null) {
+			diskCache.evict(diskKey(path));
+		}
+	}
+
+	/**
+	 * Decoded segments of the raw attachment path (/Space/Page/file%20name.pdf), encoded again one by one
+	 * when the xwiki download uri is built
+	 * @return null if the path is not an attachment path (less than space, page and file, empty, '.' or '..'
+	 * segment, bad encoding)
+	 */
+	private List<String> segments(String rawPath) {
+		if (! rawPath.startsWith("/")) {
+			return null;
+		}
+		List<String> segments = new ArrayList<>();
+		try {
+			for (String raw : rawPath.substring(1).split("/", -1)) {
+				String segment = UriUtils.decode(raw, StandardCharsets.UTF_8);
+				if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+					return null;
+				}
+				segments.add(segment);
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return segments.size() < 3 ? null : segments;
+	}
+
+	private boolean isAllowed(String path) {
+		if (path.isEmpty() || ! path.startsWith("/") || path.contains("..")) {
+			return false;
+		}
+		List<String> allowed = properties.getAllowedPaths();
+		return allowed.stream().anyMatch(pattern -> pathMatcher.match(pattern, path));
+	}
+
+	private boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String weakless = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String candidate : ifNoneMatch.split(",")) {
+			String value = candidate.trim();
+			if (value.equals("*") || value.equals(etag) || value.equals(weakless) || value.equals("W/" + weakless)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,21 +1,43 @@
 package org.open4goods.xwiki.services;
 
+import java.io.IOException;
+import java.net.URI;
 import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.open4goods.xwiki.authentication.XWikiSessionAuthenticator;
+import org.open4goods.xwiki.cache.XWikiRevalidationCache;
 import org.open4goods.xwiki.config.UrlManagementHelper;
 import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.model.AttachmentStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
 /**
  * Http services to request the XWiki server
  * 
@@ -30,12 +52,39 @@ public class RestTemplateService {
 	private XWikiServiceProperties properties;
 	private XWikiConstantsResourcesPath resourcesPathManager;
 	private UrlManagementHelper urlHelper;;
+	// concurrent identical requests share a single upstream call
+	private XWikiRequestCoalescer coalescer;
+	// validators and parsed objects of the rest resources, for conditional requests
+	private XWikiRevalidationCache revalidationCache;
+	// service account session cookies instead of basic credentials, null: basic on every request
+	private XWikiSessionAuthenticator sessionAuthenticator;
+	// latency, outcome and size of the requests
+	private XWikiMetrics metrics;
 	
 	private static Logger logger = LoggerFactory.getLogger(RestTemplateService.class);
 	
 	public RestTemplateService(RestTemplate restTemplate, RestTemplate webTemplate, XWikiServiceProperties properties) {
+		this(restTemplate, webTemplate, 
+				new XWikiRequestCoalescer(properties.getHttp().getMaxInFlight(), Metrics.globalRegistry), 
+				new XWikiRevalidationCache(properties.getCache().getRevalidation(), Metrics.globalRegistry), 
+				properties);
+	}
+	
+	public RestTemplateService(RestTemplate restTemplate, RestTemplate webTemplate, XWikiRequestCoalescer coalescer, XWikiRevalidationCache revalidationCache, XWikiServiceProperties properties) {
+		this(restTemplate, webTemplate, coalescer, revalidationCache, null, properties);
+	}
+	
+	public RestTemplateService(RestTemplate restTemplate, RestTemplate webTemplate, XWikiRequestCoalescer coalescer, XWikiRevalidationCache revalidationCache, XWikiSessionAuthenticator sessionAuthenticator, XWikiServiceProperties properties) {
+		this(restTemplate, webTemplate, coalescer, revalidationCache, sessionAuthenticator, new XWikiMetrics(Metrics.globalRegistry), properties);
+	}
+	
+	public RestTemplateService(RestTemplate restTemplate, RestTemplate webTemplate, XWikiRequestCoalescer coalescer, XWikiRevalidationCache revalidationCache, XWikiSessionAuthenticator sessionAuthenticator, XWikiMetrics metrics, XWikiServiceProperties properties) {
+		this.sessionAuthenticator = sessionAuthenticator;
+		this.metrics = metrics;
 		this.restTemplate = restTemplate;
 		this.webTemplate = webTemplate;
+		this.coalescer = coalescer;
+		this.revalidationCache = revalidationCache;
 		this.properties = properties;
 		this.urlHelper = new UrlManagementHelper(properties);
 		//this.resourcesPathManager = new XWikiConstantsResourcesPath(this.properties.getBaseUrl(), this.properties.getApiEntrypoint(), this.properties.getApiWiki());
@@ -44,10 +93,18 @@ public class RestTemplateService {
 	/**
 	 * Return Response from a REST service endpoint if status code equals to 2xx
 	 * Null otherwise (exception, status code not equals to 2xxx)
+	 * Concurrent requests to the same endpoint share the same response
 	 * @param endpoint
 	 * @return Response if status code equals to 2xxx, null otherwise
 	 */
 	public  ResponseEntity<String> getRestResponse ( String endpoint ) throws ResponseStatusException {
+		if(endpoint == null) {
+			return null;
+		}
+		return coalesce(requestKey(urlHelper.cleanUrl(endpoint), ResponseEntity.class), () -> fetchRestResponse(endpoint));
+	}
+	
+	private ResponseEntity<String> fetchRestResponse ( String endpoint ) throws ResponseStatusException {
 
 		ResponseEntity<String> response = null;
 		String updatedEndpoint = null;
@@ -58,10 +115,8 @@ public class RestTemplateService {
 				updatedEndpoint = urlHelper.cleanUrl(endpoint);
 				logger.info("request xwiki server with endpoint {}", updatedEndpoint);
 				
-				HttpHeaders headers = authenticatedHeaders(properties);	
-				
-				HttpEntity<String> request = new HttpEntity<String>(headers);
-				response = restTemplate.exchange(updatedEndpoint, HttpMethod.GET, request, String.class);
+				String url = updatedEndpoint;
+				response = authenticated(url, headers -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<String>(headers), String.class));
 			} catch(RestClientResponseException rcre) {
 				logger.warn("HttpClientErrorException exception  - uri:{} - error:{}", updatedEndpoint, rcre.getStackTrace());
 				throw new ResponseStatusException(rcre.getStatusCode(),rcre.getResponseBodyAsString());
@@ -74,6 +129,69 @@ public class RestTemplateService {
 	}
 	
 
+	/**
+	 * Request a REST service endpoint and hand the response body stream to 'extractor',
+	 * without materializing the body as a String.
+	 * Error management is the same as {@link #getRestResponse(String)}
+	 * @param endpoint
+	 * @param extractor builds the result from the (still open) response
+	 * @return extractor result, null if endpoint is null
+	 */
+	public <T> T getRestResponse ( String endpoint, ResponseExtractor<T> extractor ) throws ResponseStatusException {
+		return execute(endpoint, null, extractor);
+	}
+	
+	private <T> T execute ( String endpoint, XWikiRequestCoalescer.Key revalidationKey, ResponseExtractor<T> extractor ) throws ResponseStatusException {
+
+		T result = null;
+		String updatedEndpoint = null;
+		
+		if(endpoint != null) {
+			try {
+				// first clean url: url decoding, check scheme and add query params if needed
+				updatedEndpoint = urlHelper.cleanUrl(endpoint);
+				logger.info("request xwiki server with endpoint {}", updatedEndpoint);
+				
+				String url = updatedEndpoint;
+				result = authenticated(url, headers -> {
+					// conditional request if the resource was already fetched
+					ResponseExtractor<T> responseExtractor = sized(url, revalidationKey != null ? revalidationCache.revalidating(revalidationKey, headers, extractor) : extractor);
+					RequestCallback requestCallback = request -> request.getHeaders().putAll(headers);
+					return restTemplate.execute(url, HttpMethod.GET, requestCallback, responseExtractor);
+				});
+			} catch(RestClientResponseException rcre) {
+				logger.warn("HttpClientErrorException exception  - uri:{} - error:{}", updatedEndpoint, rcre.getStackTrace());
+				throw new ResponseStatusException(rcre.getStatusCode(),rcre.getResponseBodyAsString());
+			} catch(ResponseStatusException rse) {
+				// raised by the extractor (mapping error), already managed
+				throw rse;
+			} catch(Exception e) {
+				logger.warn("Exception while trying to reach endpoint:{} - error:{}", updatedEndpoint, e.getStackTrace());
+				throw new ResponseStatusException(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build().getStatusCode(), e.getMessage());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #getRestResponse(String, ResponseExtractor)}, concurrent requests to the same endpoint
+	 * for the same 'type' share a single upstream call and the extracted result.
+	 * With revalidation, the request is conditional and a 304 response returns the previously extracted result
+	 * @param endpoint
+	 * @param type type of the extracted result
+	 * @param extractor builds the result from the (still open) response
+	 * @return extractor result, null if endpoint is null
+	 */
+	public <T> T getRestResponse ( String endpoint, Class<T> type, ResponseExtractor<T> extractor ) throws ResponseStatusException {
+		if(endpoint == null) {
+			return null;
+		}
+		XWikiRequestCoalescer.Key key = requestKey(urlHelper.cleanUrl(endpoint), type);
+		XWikiRequestCoalescer.Key revalidationKey = properties.getHttp().isRevalidation() ? key : null;
+		return coalesce(key, () -> execute(endpoint, revalidationKey, extractor));
+	}
+	
+
 	/**
 	 * 
 	 * @param viewUrl
@@ -81,14 +199,19 @@ public class RestTemplateService {
 	 */
 	
 	public ResponseEntity<String> getWebResponse( String xwikiWebUrl ){
+		if(xwikiWebUrl == null) {
+			return null;
+		}
+		return coalesce(requestKey(xwikiWebUrl, ResponseEntity.class), () -> fetchWebResponse(xwikiWebUrl));
+	}
+	
+	private ResponseEntity<String> fetchWebResponse( String xwikiWebUrl ){
 
 		ResponseEntity<String> response = null;
 		logger.info("request xwiki web server with url {}", xwikiWebUrl);
 		if(xwikiWebUrl != null) {
 			try {
-				HttpHeaders headers = authenticatedHeaders(properties);							
-				HttpEntity<String> request = new HttpEntity<String>(headers);
-				response = restTemplate.exchange(xwikiWebUrl, HttpMethod.GET, request, String.class);
+				response = authenticated(xwikiWebUrl, headers -> restTemplate.exchange(xwikiWebUrl, HttpMethod.GET, new HttpEntity<String>(headers), String.class));
 			} catch(Exception e) {
 				logger.error("Exception while trying to reach url:{} - error:{}", xwikiWebUrl, e.getMessage());
 			}
@@ -101,6 +224,149 @@ public class RestTemplateService {
 		return response;
 	}
 	
+	/**
+	 * Request a web page and read only its content block (see {@link XWikiContentExtractor}),
+	 * the connection being closed once the block is read
+	 * Concurrent requests to the same page share the same response
+	 * @param xwikiWebUrl
+	 * @return inner html of the content block, null on error or if the page has no content block
+	 */
+	public String getWebContent( String xwikiWebUrl ){
+		if(xwikiWebUrl == null) {
+			return null;
+		}
+		return coalesce(requestKey(xwikiWebUrl, XWikiContentExtractor.class), () -> fetchWebContent(xwikiWebUrl));
+	}
+	
+	private String fetchWebContent( String xwikiWebUrl ){
+
+		logger.info("request xwiki web server content with url {}", xwikiWebUrl);
+		try {
+			return authenticated(xwikiWebUrl, headers -> {
+				ResponseExtractor<String> extractor = sized(xwikiWebUrl, measured(new XWikiContentExtractor()));
+				if(restTemplate.getRequestFactory() instanceof HttpComponentsClientHttpRequestFactory requestFactory) {
+					// the rest of the page is dropped with the connection, whatever the body encoding
+					return executeAbortable(requestFactory.getHttpClient(), xwikiWebUrl, headers, extractor);
+				}
+				RequestCallback requestCallback = request -> request.getHeaders().putAll(headers);
+				return restTemplate.execute(xwikiWebUrl, HttpMethod.GET, requestCallback, extractor);
+			});
+		} catch(Exception e) {
+			logger.error("Exception while trying to reach url:{} - error:{}", xwikiWebUrl, e.getMessage());
+		}
+		return null;
+	}
+	
+	/**
+	 * GET 'url' on 'httpClient' and hand the response to 'extractor', the request is aborted once extracted:
+	 * the body left is neither read nor inflated, the connection being closed instead of drained
+	 * Errors are handled by the error handler of the rest template, as in {@link RestTemplate#execute}
+	 * @param httpClient
+	 * @param url
+	 * @param headers
+	 * @param extractor reads the response, partially if it needs to
+	 * @return extractor result
+	 */
+	private <T> T executeAbortable(HttpClient httpClient, String url, HttpHeaders headers, ResponseExtractor<T> extractor) {
+		URI uri = restTemplate.getUriTemplateHandler().expand(url);
+		HttpGet request = new HttpGet(uri);
+		headers.forEach((name, values) -> values.forEach(value -> request.addHeader(name, value)));
+		try (ClientHttpResponse response = new XWikiAbortableResponse(request, httpClient.executeOpen(null, request, null))) {
+			ResponseErrorHandler errorHandler = restTemplate.getErrorHandler();
+			if(errorHandler.hasError(response)) {
+				errorHandler.handleError(uri, HttpMethod.GET, response);
+			}
+			return extractor.extractData(response);
+		} catch(IOException e) {
+			throw new ResourceAccessException("I/O error on GET request for \"" + url + "\": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Open a streamed download of an attachment, the body is not read
+	 * The 'forwarded' headers (Range, If-Range, If-None-Match, If-Modified-Since) are passed through to xwiki
+	 * @param url
+	 * @param forwarded client request headers, could be null
+	 * @return the opened stream (2xx, 304, 404 or 416 response) to be closed by the caller, null otherwise
+	 */
+	public AttachmentStream openAttachment(String url, HttpHeaders forwarded) {
+		
+		if(url == null) {
+			return null;
+		}
+		URI uri;
+		try {
+			uri = restTemplate.getUriTemplateHandler().expand(url);
+		} catch(IllegalArgumentException e) {
+			logger.error("Invalid attachment url:{} - error:{}", url, e.getMessage());
+			return null;
+		}
+		return openAttachment(uri, forwarded);
+	}
+	
+	/**
+	 * Streamed download of an attachment, the uri is used as is (already encoded, no template expansion)
+	 * @param uri
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the request failed
+	 */
+	public AttachmentStream openAttachment(URI uri, HttpHeaders forwarded) {
+		
+		if(uri == null) {
+			return null;
+		}
+		URI target = URI.create(urlHelper.updateUrlScheme(uri.toString()));
+		String url = target.toString();
+		ClientHttpResponse response = null;
+		Timer.Sample sample = metrics.start();
+		String resource = XWikiMetrics.resource(url);
+		try {
+			HttpHeaders headers = new HttpHeaders();
+			XWikiSessionAuthenticator.Session session = authenticate(headers);
+			response = openAttachment(target, forwarded, headers);
+			if(session != null && response.getStatusCode().isSameCodeAs(HttpStatus.UNAUTHORIZED)) {
+				// session expired or rejected: basic credentials for this request
+				response.close();
+				response = null;
+				sessionAuthenticator.invalidate(session);
+				response = openAttachment(target, forwarded, authenticatedHeaders(properties));
+			}
+			
+			HttpStatusCode status = response.getStatusCode();
+			metrics.request(sample, resource, status);
+			metrics.responseSize(resource, response.getHeaders().getContentLength());
+			// 404 handed over too: the caller tells a removed attachment from an unreachable xwiki
+			if(status.is2xxSuccessful() || status.isSameCodeAs(HttpStatus.NOT_MODIFIED) || status.isSameCodeAs(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+					|| status.isSameCodeAs(HttpStatus.NOT_FOUND)) {
+				return new AttachmentStream(response);
+			}
+			logger.warn("Response returns with status code:{} - for uri:{}", status, url);
+		} catch(Exception e) {
+			if(response == null) {
+				metrics.request(sample, resource, e);
+			}
+			logger.error("Exception while trying to reach url:{} - error:{}", url, e.getMessage());
+		}
+		if(response != null) {
+			response.close();
+		}
+		return null;
+	}
+	
+	private ClientHttpResponse openAttachment(URI uri, HttpHeaders forwarded, HttpHeaders headers) throws IOException {
+		ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(uri, HttpMethod.GET);
+		request.getHeaders().putAll(headers);
+		if(forwarded != null) {
+			for(String header : AttachmentStream.FORWARDED_HEADERS) {
+				List<String> values = forwarded.get(header);
+				if(values != null) {
+					request.getHeaders().put(header, values);
+				}
+			}
+		}
+		return request.execute();
+	}
+	
 	/**
 	 * 
 	 * @param url
@@ -112,9 +378,7 @@ public class RestTemplateService {
 		if(url != null) {
 			try {
 				
-				HttpHeaders headers = authenticatedHeaders(properties);							
-				HttpEntity<String> request = new HttpEntity<String>(headers);
-				response = restTemplate.exchange(url, HttpMethod.GET, request, byte[].class);
+				response = authenticated(url, headers -> restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<String>(headers), byte[].class));
 			
 			} catch(Exception e) {
 				logger.error("Exception while trying to reach url:{} - error:{}", url, e.getMessage());
@@ -201,6 +465,101 @@ public class RestTemplateService {
 //	}
 	
 	
+	/**
+	 * Run 'call', or share the result of the identical in-flight request if any (coalescing enabled)
+	 * @param key
+	 * @param call
+	 * @return
+	 */
+	private <T> T coalesce(XWikiRequestCoalescer.Key key, Supplier<T> call) {
+		if( ! properties.getHttp().isCoalescing() ) {
+			return call.get();
+		}
+		return coalescer.execute(key, call);
+	}
+	
+	private XWikiRequestCoalescer.Key requestKey(String url, Class<?> type) {
+		return new XWikiRequestCoalescer.Key(url, properties.getUsername(), type);
+	}
+	
+	/**
+	 * Same as {@link #authenticated(Function)}, the request to 'url' being measured
+	 * @param url
+	 * @param call
+	 * @return
+	 */
+	private <T> T authenticated(String url, Function<HttpHeaders, T> call) {
+		Timer.Sample sample = metrics.start();
+		String resource = XWikiMetrics.resource(url);
+		try {
+			T result = authenticated(call);
+			metrics.request(sample, resource, result);
+			return result;
+		} catch(RuntimeException e) {
+			metrics.request(sample, resource, e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * 'extractor' recording the announced size of the response
+	 */
+	private <T> ResponseExtractor<T> sized(String url, ResponseExtractor<T> extractor) {
+		return response -> {
+			metrics.responseSize(XWikiMetrics.resource(url), response.getHeaders().getContentLength());
+			return extractor.extractData(response);
+		};
+	}
+	
+	/**
+	 * 'extractor' of the page content block, the reading of the body being measured as an html extraction
+	 */
+	private ResponseExtractor<String> measured(XWikiContentExtractor extractor) {
+		return response -> {
+			Timer.Sample sample = metrics.start();
+			String content = null;
+			try {
+				content = extractor.extractData(response);
+				return content;
+			} finally {
+				metrics.htmlExtraction(sample, "content", content != null);
+			}
+		};
+	}
+	
+	/**
+	 * Run 'call' with the credentials of the service account: session cookies if enabled, basic otherwise
+	 * A session refused by xwiki (401) is dropped and the call is made again with the basic credentials
+	 * @param call request, with the headers to send
+	 * @return
+	 */
+	private <T> T authenticated(Function<HttpHeaders, T> call) {
+		HttpHeaders headers = new HttpHeaders();
+		XWikiSessionAuthenticator.Session session = authenticate(headers);
+		try {
+			return call.apply(headers);
+		} catch(HttpClientErrorException.Unauthorized e) {
+			if(session == null) {
+				throw e;
+			}
+			sessionAuthenticator.invalidate(session);
+			return call.apply(authenticatedHeaders(properties));
+		}
+	}
+	
+	/**
+	 * Add the service account credentials to 'headers'
+	 * @param headers
+	 * @return the session used, null for basic credentials
+	 */
+	private XWikiSessionAuthenticator.Session authenticate(HttpHeaders headers) {
+		if(sessionAuthenticator == null) {
+			headers.putAll(authenticatedHeaders(properties));
+			return null;
+		}
+		return sessionAuthenticator.authenticate(headers);
+	}
+	
 	/**
 	 * Retrieve http headers that will allow to authenticate against the wiki
 	 * @param user
@@ -0,0 +1,68 @@
+package org.open4goods.xwiki.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Response of a request sent straight on the http client, closed by aborting the request:
+ * the connection is dropped instead of the rest of the body being read (and inflated when compressed)
+ * Only for responses read partially, a connection aborted is not given back to the pool
+ *
+ * @author Thierry.Ledan
+ */
+class XWikiAbortableResponse implements ClientHttpResponse {
+
+	private final HttpUriRequestBase request;
+	private final ClassicHttpResponse response;
+	private HttpHeaders headers;
+
+	XWikiAbortableResponse(HttpUriRequestBase request, ClassicHttpResponse response) {
+		this.request = request;
+		this.response = response;
+	}
+
+	@Override
+	public HttpStatusCode getStatusCode() {
+		return HttpStatusCode.valueOf(response.getCode());
+	}
+
+	@Override
+	public String getStatusText() {
+		return response.getReasonPhrase();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		if (headers == null) {
+			headers = new HttpHeaders();
+			for (Header header : response.getHeaders()) {
+				headers.add(header.getName(), header.getValue());
+			}
+		}
+		return headers;
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		HttpEntity entity = response.getEntity();
+		return entity != null ? entity.getContent() : InputStream.nullInputStream();
+	}
+
+	@Override
+	public void close() {
+		request.abort();
+		try {
+			response.close();
+		} catch (IOException e) {
+			// connection already dropped
+		}
+	}
+}
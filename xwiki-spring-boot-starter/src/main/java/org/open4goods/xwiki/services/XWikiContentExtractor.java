@@ -0,0 +1,195 @@
+package org.open4goods.xwiki.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResponseExtractor;
+
+/**
+ * Extracts the inner html of the page content block (&lt;div id="xwikicontent"&gt;) from a /bin/view response,
+ * while it is read: the skin before the block is scanned without being kept, the block ends on its matching
+ * &lt;/div&gt; (nested divs counted, comments, scripts and styles skipped) and the rest of the page is not read.
+ * The response is then closed by aborting its connection (see RestTemplateService#getWebContent), so the
+ * rest of the page is neither transferred nor decoded
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiContentExtractor implements ResponseExtractor<String> {
+
+	private static final char[] CONTENT_ID = "id=\"xwikicontent\"".toCharArray();
+
+	private static final int BUFFER_SIZE = 8192;
+
+	@Override
+	public String extractData(ClientHttpResponse response) throws IOException {
+		MediaType contentType = response.getHeaders().getContentType();
+		Charset charset = contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+		return extract(response.getBody(), charset);
+	}
+
+	/**
+	 * Read 'in' up to the end of the content block
+	 * @param in
+	 * @param charset
+	 * @return the inner html of the content block, null if the page has none
+	 * @throws IOException
+	 */
+	public static String extract(InputStream in, Charset charset) throws IOException {
+		return extract(new InputStreamReader(in, charset));
+	}
+
+	/**
+	 * Same as {@link #extract(InputStream, Charset)}, for an already read page
+	 * @param page
+	 * @return the inner html of the content block, null if the page has none
+	 */
+	public static String extract(String page) {
+		try {
+			return extract(new StringReader(page));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param page
+	 * @return true if 'page' is a full skinned page, with a content block
+	 */
+	public static boolean hasContentBlock(String page) {
+		return page.contains(new String(CONTENT_ID));
+	}
+
+	private static String extract(Reader reader) throws IOException {
+		Scanner scanner = new Scanner(reader);
+		if (! scanner.skipPast(CONTENT_ID) || ! scanner.skipPast(">".toCharArray())) {
+			return null;
+		}
+		return scanner.copyBlock();
+	}
+
+	/**
+	 * Buffered char by char reading, the reader is never read further than needed
+	 */
+	private static class Scanner {
+
+		private final Reader reader;
+		private final char[] buffer = new char[BUFFER_SIZE];
+		private int position;
+		private int limit;
+
+		private Scanner(Reader reader) {
+			this.reader = reader;
+		}
+
+		private int next() throws IOException {
+			if (position == limit) {
+				limit = reader.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+
+		/**
+		 * Read up to the end of the first occurrence of 'pattern' (KMP)
+		 * @return false if not found
+		 */
+		private boolean skipPast(char[] pattern) throws IOException {
+			int[] fallback = new int[pattern.length];
+			for (int i = 1, k = 0; i < pattern.length; i++) {
+				while (k > 0 && pattern[i] != pattern[k]) {
+					k = fallback[k - 1];
+				}
+				if (pattern[i] == pattern[k]) {
+					k++;
+				}
+				fallback[i] = k;
+			}
+			int matched = 0;
+			int c;
+			while ((c = next()) != -1) {
+				while (matched > 0 && c != pattern[matched]) {
+					matched = fallback[matched - 1];
+				}
+				if (c == pattern[matched] && ++matched == pattern.length) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Copy up to the closing tag of the current div
+		 */
+		private String copyBlock() throws IOException {
+			StringBuilder out = new StringBuilder(BUFFER_SIZE);
+			int depth = 1;
+			int c;
+			while ((c = next()) != -1) {
+				if (c != '<') {
+					out.append((char) c);
+					continue;
+				}
+				int tagStart = out.length();
+				out.append('<');
+				c = next();
+				if (c == '!') {
+					out.append('!');
+					copyUntil(out, "-->");
+					continue;
+				}
+				boolean closing = c == '/';
+				if (closing) {
+					out.append('/');
+					c = next();
+				}
+				StringBuilder name = new StringBuilder();
+				while (c != -1 && Character.isLetterOrDigit(c)) {
+					name.append((char) c);
+					c = next();
+				}
+				out.append(name);
+				String tag = name.toString().toLowerCase();
+				if ("div".equals(tag)) {
+					depth += closing ? -1 : 1;
+					if (depth == 0) {
+						out.setLength(tagStart);
+						return out.toString();
+					}
+				}
+				if (c == -1) {
+					break;
+				}
+				out.append((char) c);
+				if (! closing && ("script".equals(tag) || "style".equals(tag))) {
+					// raw text, could contain anything looking like tags
+					copyUntil(out, "</" + tag);
+				}
+			}
+			// truncated page
+			return out.toString();
+		}
+
+		private void copyUntil(StringBuilder out, String end) throws IOException {
+			int c;
+			while ((c = next()) != -1) {
+				out.append((char) c);
+				if (c == end.charAt(end.length() - 1) && out.length() >= end.length()
+						&& out.substring(out.length() - end.length()).equalsIgnoreCase(end)) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package org.open4goods.xwiki.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiDirectoryProperties;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.rest.model.jaxb.ObjectSummary;
+import org.xwiki.rest.model.jaxb.SearchResult;
+import org.xwiki.rest.model.jaxb.SearchResults;
+
+/**
+ * In-memory users and groups of the wiki
+ * Loaded in bulk (one query for the groups, one for the users, one objects call per group), then kept in sync
+ * in background: only the groups whose version changed since the previous sync are fetched again.
+ * Each sync builds a new immutable snapshot (group -> users, user -> groups) swapped atomically, readers never
+ * block nor see a half built directory. Memberships are the direct ones, groups and members being kept in the
+ * order and format of XWikiReadService.getGroupsName / getGroupUsers
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiDirectoryService implements AutoCloseable {
+
+	private static Logger logger = LoggerFactory.getLogger(XWikiDirectoryService.class);
+
+	/**
+	 * One sync of the directory
+	 * @param groupUsers users of each group, in query and objects order
+	 * @param userGroups groups of each user (reverse index)
+	 * @param users users of the wiki
+	 * @param versions version of each group page at the time its members were fetched
+	 */
+	record Snapshot(Map<String, List<String>> groupUsers, Map<String, Set<String>> userGroups, Set<String> users, Map<String, String> versions) {
+
+		static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of(), Set.of(), Map.of());
+	}
+
+	private final XwikiMappingService mappingService;
+	private final XWikiParallelExecutor parallelExecutor;
+	private final XWikiConstantsResourcesPath resourcesPathManager;
+	private final XWikiDirectoryProperties properties;
+
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+	private volatile boolean loaded;
+	private ScheduledExecutorService scheduler;
+
+	public XWikiDirectoryService(XwikiMappingService mappingService, XWikiParallelExecutor parallelExecutor, XWikiServiceProperties xWikiProperties) {
+		this.mappingService = mappingService;
+		this.parallelExecutor = parallelExecutor;
+		this.resourcesPathManager = new XWikiConstantsResourcesPath(xWikiProperties.getBaseUrl(), xWikiProperties.getApiEntrypoint(), xWikiProperties.getApiWiki());
+		this.properties = xWikiProperties.getDirectory();
+	}
+
+	/**
+	 * First sync at once, then every 'xwiki.directory.refresh-interval', on a background thread
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "xwiki-directory");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = properties.getRefreshInterval().toMillis();
+		scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * @return false until the first successful sync
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @param userName user page name, without the 'XWiki.' space
+	 * @return groups page names of the user, empty if unknown
+	 */
+	public Set<String> getUserGroups(String userName) {
+		return snapshot.get().userGroups().getOrDefault(userName, Set.of());
+	}
+
+	/**
+	 * @param groupName group page name
+	 * @return users of the group, as listed by its objects ('XWiki.' removed), empty if unknown
+	 */
+	public List<String> getGroupUsers(String groupName) {
+		return snapshot.get().groupUsers().getOrDefault(groupName, List.of());
+	}
+
+	public boolean isMember(String userName, String groupName) {
+		return getUserGroups(userName).contains(groupName);
+	}
+
+	/**
+	 * @return groups page names in query order, "XWikiGroupTemplate" discarded
+	 */
+	public Set<String> getGroups() {
+		return snapshot.get().groupUsers().keySet();
+	}
+
+	public Set<String> getUsers() {
+		return snapshot.get().users();
+	}
+
+	/**
+	 * Sync the directory with xwiki now
+	 * The previous state is kept for what could not be fetched (groups, users list), retried on next sync
+	 */
+	public synchronized void refresh() {
+
+		Snapshot previous = snapshot.get();
+
+		SearchResults groupsResults = mappingService.mapSearchResults(resourcesPathManager.getGroupsEndpoint());
+		if (groupsResults == null) {
+			logger.warn("Unable to list xwiki groups, directory not synced");
+			return;
+		}
+		// one result per group object: keep one version per group page
+		Map<String, String> versions = new LinkedHashMap<>();
+		for (SearchResult result : groupsResults.getSearchResults()) {
+			if (result.getPageName() != null && !result.getPageName().contains("XWikiGroupTemplate")) {
+				versions.putIfAbsent(result.getPageName(), version(result));
+			}
+		}
+
+		// new or modified groups only
+		List<String> changed = versions.entrySet().stream()
+				.filter(e -> !previous.groupUsers().containsKey(e.getKey()) || !Objects.equals(previous.versions().get(e.getKey()), e.getValue()))
+				.map(Map.Entry::getKey)
+				.toList();
+		Map<String, List<String>> fetched = new HashMap<>();
+		for (Map.Entry<String, List<String>> members : parallelExecutor.fetchAll(changed, group -> fetchMembers(group))) {
+			fetched.put(members.getKey(), members.getValue());
+		}
+
+		Map<String, List<String>> groupUsers = new LinkedHashMap<>();
+		Map<String, String> syncedVersions = new HashMap<>();
+		for (Map.Entry<String, String> group : versions.entrySet()) {
+			String name = group.getKey();
+			if (fetched.containsKey(name)) {
+				groupUsers.put(name, fetched.get(name));
+				syncedVersions.put(name, group.getValue());
+			} else if (previous.groupUsers().containsKey(name)) {
+				// unchanged, or failed to fetch: previous members and version, fetched again next time if changed
+				groupUsers.put(name, previous.groupUsers().get(name));
+				syncedVersions.put(name, previous.versions().get(name));
+			}
+		}
+
+		Map<String, Set<String>> userGroups = new HashMap<>();
+		groupUsers.forEach((group, users) -> users.forEach(user -> userGroups.computeIfAbsent(memberName(user), u -> new HashSet<>()).add(group)));
+		userGroups.replaceAll((user, groups) -> Set.copyOf(groups));
+
+		Set<String> users = fetchUsers();
+		snapshot.set(new Snapshot(Collections.unmodifiableMap(groupUsers), Map.copyOf(userGroups), users == null ? previous.users() : users, Map.copyOf(syncedVersions)));
+		loaded = true;
+		logger.info("xwiki directory synced: {} groups ({} fetched), {} users", groupUsers.size(), fetched.size(), getUsers().size());
+	}
+
+	private void refreshQuietly() {
+		try {
+			refresh();
+		} catch (Exception e) {
+			// keep the scheduling alive, the previous snapshot is still served
+			logger.warn("xwiki directory sync failed - error:{}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Members of 'groupName', read from its objects as XWikiReadService.getGroupUsers does
+	 * @return null if the objects could not be fetched
+	 */
+	private Map.Entry<String, List<String>> fetchMembers(String groupName) {
+		org.xwiki.rest.model.jaxb.Objects objects = mappingService.getObjects(resourcesPathManager.getGroupUsers(groupName));
+		if (objects == null) {
+			return null;
+		}
+		List<String> members = new ArrayList<>();
+		for (ObjectSummary summary : objects.getObjectSummaries()) {
+			if (summary.getHeadline() != null && !summary.getHeadline().isEmpty()) {
+				members.add(summary.getHeadline().replaceAll("XWiki.", ""));
+			}
+		}
+		return Map.entry(groupName, List.copyOf(members));
+	}
+
+	/**
+	 * @return users page names, null if they could not be listed
+	 */
+	private Set<String> fetchUsers() {
+		SearchResults results = mappingService.mapSearchResults(resourcesPathManager.getUsersEndpoint());
+		if (results == null) {
+			return null;
+		}
+		Set<String> users = new HashSet<>();
+		for (SearchResult result : results.getSearchResults()) {
+			if (result.getPageName() != null && !result.getPageName().contains("XWikiUserTemplate")) {
+				users.add(result.getPageName());
+			}
+		}
+		return Set.copyOf(users);
+	}
+
+	/**
+	 * 'xwiki:XWiki.john', 'xwiki:john' or 'XWiki.john' -> 'john'
+	 */
+	static String memberName(String reference) {
+		String name = reference.substring(reference.indexOf(':') + 1);
+		String space = "XWiki.";
+		return name.startsWith(space) ? name.substring(space.length()) : name;
+	}
+
+	private static String version(SearchResult result) {
+		long modified = result.getModified() == null ? 0 : result.getModified().getTimeInMillis();
+		return result.getVersion() + "@" + modified;
+	}
+}
@@ -1,24 +1,26 @@
 package org.open4goods.xwiki.services;
 
-import java.io.StringReader;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Locale;
 
-
+import org.apache.commons.lang3.StringUtils;
 import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiFetchProperties.HtmlFetchMode;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.html.XWikiHtmlRewriterChain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.core.convert.ConversionException;
 import org.springframework.http.ResponseEntity;
-import org.xwiki.component.embed.EmbeddableComponentManager;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.rendering.converter.Converter;
-import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
-import org.xwiki.rendering.renderer.printer.WikiPrinter;
 import org.xwiki.rendering.syntax.Syntax;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+@CacheConfig(cacheResolver = "xwikiCacheResolver", keyGenerator = "xwikiCacheKeyGenerator")
 public class XWikiHtmlService {
 
 	public static final String PROXYFIED_FOLDER = "/wiki-files";
@@ -26,11 +28,40 @@ public class XWikiHtmlService {
 	private XWikiConstantsResourcesPath resourcesPathManager;
 	private XwikiMappingService mappingService;
 	private RestTemplateService restTemplateService;
+	private XWikiRenderingService renderingService;
+	// rendering service created by this service (legacy constructor), released by dispose()
+	private boolean ownsRenderingService;
+	// post-processing of the html (links, images)
+	private XWikiHtmlRewriterChain rewriterChain;
+	// content only requests are not sent before this time (millis), set when the server answered one with the full skin
+	private volatile long plainRetryAt;
+	// html extraction timings
+	private XWikiMetrics metrics;
 	
 	private static Logger LOGGER = LoggerFactory.getLogger(XWikiHtmlService.class);
 
+	/**
+	 * Service with its own rendering service, to be released by {@link #dispose()}
+	 * Prefer sharing the 'xwikiRenderingService' bean
+	 */
 	public XWikiHtmlService( XwikiMappingService mappingService, RestTemplateService restTemplateService, XWikiServiceProperties xWikiProperties) {
+		this(mappingService, restTemplateService, new XWikiRenderingService(), xWikiProperties);
+		this.ownsRenderingService = true;
+	}
+
+	public XWikiHtmlService( XwikiMappingService mappingService, RestTemplateService restTemplateService, XWikiRenderingService renderingService, XWikiServiceProperties xWikiProperties) {
+		this(mappingService, restTemplateService, renderingService, new XWikiHtmlRewriterChain(XWikiHtmlRewriterChain.builtInStages(xWikiProperties)), xWikiProperties);
+	}
+
+	public XWikiHtmlService( XwikiMappingService mappingService, RestTemplateService restTemplateService, XWikiRenderingService renderingService, XWikiHtmlRewriterChain rewriterChain, XWikiServiceProperties xWikiProperties) {
+		this(mappingService, restTemplateService, renderingService, rewriterChain, new XWikiMetrics(Metrics.globalRegistry), xWikiProperties);
+	}
+
+	public XWikiHtmlService( XwikiMappingService mappingService, RestTemplateService restTemplateService, XWikiRenderingService renderingService, XWikiHtmlRewriterChain rewriterChain, XWikiMetrics metrics, XWikiServiceProperties xWikiProperties) {
+		this.metrics = metrics;
 		this.xWikiProperties = xWikiProperties;
+		this.renderingService = renderingService;
+		this.rewriterChain = rewriterChain;
 		this.mappingService = mappingService;
 		this.restTemplateService = restTemplateService;
 		
@@ -38,6 +69,15 @@ public class XWikiHtmlService {
 
 	}
 	
+	/**
+	 * Release the rendering components created by this service, a shared rendering service is left untouched
+	 */
+	public void dispose() {
+		if( ownsRenderingService ) {
+			renderingService.dispose();
+		}
+	}
+	
 	
 	/**
 	 * Returns xwiki web server response from wikiPage
@@ -55,11 +95,38 @@ public class XWikiHtmlService {
 //	}
 	
 	
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.HTML_CACHE_NAME, sync = true)
 	public String html( String xwikiPath) {
 		
 		return getWebPage(xwikiPath, false);
 	}
+	
+	/**
+	 * Same as {@link #html(String)}, without cache, for the 'locale' translation of the page
+	 * @param xwikiPath relative path to web page
+	 * @param locale translation, null for the default one
+	 * @return
+	 */
+	public String fetchHtml( String xwikiPath, Locale locale ) {
+		return fetchHtml(xwikiPath, locale, xWikiProperties.getFetch().getHtmlMode());
+	}
+	
+	/**
+	 * Same as {@link #fetchHtml(String, Locale)}, with the given fetch mode
+	 * @param xwikiPath relative path to web page
+	 * @param locale translation, null for the default one
+	 * @param mode
+	 * @return
+	 */
+	public String fetchHtml( String xwikiPath, Locale locale, HtmlFetchMode mode ) {
+		
+		String path = xwikiPath;
+		if( locale != null && StringUtils.isNotEmpty(locale.getLanguage()) ) {
+			path = path + "?language=" + locale.toLanguageTag();
+		}
+		// internal call, not cached
+		return fetchWebPage(path, false, mode);
+	}
 		
 	/**
 	 * Returns xwiki web server response from wikiPage
@@ -69,43 +136,81 @@ public class XWikiHtmlService {
 	 * @return html response
 	 * 	 * TOTO : Remove when rendering client side possible (waiting for jakarta migration)
 	 */
-	// TODO: manage response error / exceptions
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.HTML_CACHE_NAME, sync = true)
 	public String getWebPage( String xwikiPath, boolean withAbsolutePath ) {
-		
-		String MARKER = "<div id=\"xwikicontent\" class=\"col-xs-12\">";
-		
-		String htmlResult = null;
+		return fetchWebPage(xwikiPath, withAbsolutePath, xWikiProperties.getFetch().getHtmlMode());
+	}
+	
+	/**
+	 * Same as {@link #getWebPage(String, boolean)}, with the given fetch mode
+	 * @param xwikiPath path to web page
+	 * @param withAbsolutePath true if 'xwikiPath' is absolute
+	 * @param mode PLAIN to get the content only, falls back to PAGE if not supported
+	 * @return html response
+	 */
+	@Cacheable(cacheNames = XWikiServiceProperties.HTML_CACHE_NAME, sync = true)
+	public String getWebPage( String xwikiPath, boolean withAbsolutePath, HtmlFetchMode mode ) {
+		return fetchWebPage(xwikiPath, withAbsolutePath, mode);
+	}
+	
+	private String fetchWebPage( String xwikiPath, boolean withAbsolutePath, HtmlFetchMode mode ) {
 		
 		// web Page url
 		String xwikiWebUrl = URLDecoder.decode(xwikiPath, Charset.defaultCharset());
 		if( ! withAbsolutePath ) {
 			xwikiWebUrl = resourcesPathManager.getViewpath() + xwikiWebUrl;
 		} 
-		// request server
-		ResponseEntity<String> response = this.restTemplateService.getWebResponse( xwikiWebUrl );
-		if( response == null ) {
-			// manage error/exception
-			// TODO
-		} else {
-			// code status 2xx
-			try {
-				String raw= response.getBody();
-				int pos=raw.indexOf(MARKER);
-				raw = raw.substring(pos+MARKER.length()).trim();
-				String body= raw.substring(0,raw.indexOf("\n"));
-
-				// Removing simple <p> tag if occurs
-				if (body.startsWith("<p>")) {
-					body=body.substring(3,body.length()-4);
-				}
-				htmlResult = body;
-			}
-			catch (Exception e) {
-				LOGGER.error("Cannot render to html page at " + xwikiWebUrl,e);
-			}
+		String body = null;
+		if( mode == HtmlFetchMode.PLAIN ) {
+			body = getPlainContent(xwikiWebUrl);
 		}
-		return htmlResult;
+		if( body == null ) {
+			// request server, only the content block is read
+			body = this.restTemplateService.getWebContent( xwikiWebUrl );
+		}
+		if( body == null ) {
+			LOGGER.error("Cannot render to html page at {}", xwikiWebUrl);
+			return null;
+		}
+		Timer.Sample sample = metrics.start();
+		body = body.trim();
+		// Removing simple <p> tag if occurs
+		if (body.startsWith("<p>") && body.endsWith("</p>") && body.indexOf("<p>", 1) == -1 && body.indexOf("<p ", 1) == -1) {
+			body = body.substring(3, body.length() - 4);
+		}
+		body = rewriterChain.rewrite(body);
+		metrics.htmlExtraction(sample, "view", true);
+		return body;
+	}
+	
+	/**
+	 * Request the content only rendering of a page (?xpage=plain)
+	 * If the server answers with the full skin, the content block is extracted and the PLAIN mode is not used
+	 * for 'xwiki.fetch.plain-retry-delay' (the server config or the sheet could be fixed meanwhile)
+	 * @param xwikiWebUrl
+	 * @return the content, null if the page can not be fetched this way
+	 */
+	private String getPlainContent( String xwikiWebUrl ) {
+		
+		if( System.currentTimeMillis() < plainRetryAt ) {
+			return null;
+		}
+		String plainQuery = xWikiProperties.getFetch().getPlainQuery();
+		ResponseEntity<String> response = this.restTemplateService.getWebResponse( xwikiWebUrl + (xwikiWebUrl.contains("?") ? "&" : "?") + plainQuery );
+		if( response == null || response.getBody() == null ) {
+			return null;
+		}
+		String body = response.getBody();
+		if( XWikiContentExtractor.hasContentBlock(body) ) {
+			Duration delay = xWikiProperties.getFetch().getPlainRetryDelay();
+			LOGGER.warn("xwiki server does not render content only pages ({}), full pages are fetched for {}", plainQuery, delay);
+			plainRetryAt = System.currentTimeMillis() + delay.toMillis();
+			Timer.Sample sample = metrics.start();
+			String content = XWikiContentExtractor.extract(body);
+			metrics.htmlExtraction(sample, "content", content != null);
+			return content;
+		}
+		return body;
 	}
 	
 
@@ -115,7 +220,7 @@ public class XWikiHtmlService {
 	 * @param xwikiRelativeUrl
 	 * @return
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)	
+	@Cacheable(cacheNames = XWikiServiceProperties.HTML_CACHE_NAME, sync = true)	
 	public String getHtmlClassWebPage(String xwikiRelativeUrl) {
 	
 		
@@ -128,52 +233,54 @@ public class XWikiHtmlService {
 		String xwikiWebUrl = URLDecoder.decode(xwikiRelativeUrl, Charset.defaultCharset());
 
 			xwikiWebUrl = resourcesPathManager.getViewpath() + xwikiWebUrl;
-		// request server
-		ResponseEntity<String> response = this.restTemplateService.getWebResponse( xwikiWebUrl );
-		if( response == null ) {
+		// request server, the class sheet content only if possible
+		String raw = xWikiProperties.getFetch().getHtmlMode() == HtmlFetchMode.PLAIN ? getPlainContent(xwikiWebUrl) : null;
+		if( raw == null ) {
+			ResponseEntity<String> response = this.restTemplateService.getWebResponse( xwikiWebUrl );
+			raw = response == null ? null : response.getBody();
+		}
+		if( raw == null ) {
 			// manage error/exception
-			//TODO
-		} else {
-			// code status 2xx
-			try {
-				String raw= response.getBody();
-				raw = raw.substring(raw.lastIndexOf("<dd>")+4);
-				raw = raw.substring(0, raw.lastIndexOf("</dd>"));
-				htmlResult = raw;
-			}
-			catch (Exception e) {
-				LOGGER.error("Cannot render to html page at " + xwikiWebUrl,e);
-			}
+			LOGGER.error("Cannot render to html page at {}", xwikiWebUrl);
+			return null;
+		}
+		// code status 2xx
+		Timer.Sample sample = metrics.start();
+		try {
+			raw = raw.substring(raw.lastIndexOf("<dd>")+4);
+			raw = raw.substring(0, raw.lastIndexOf("</dd>"));
+			htmlResult = raw;
+		}
+		catch (Exception e) {
+			LOGGER.error("Cannot render to html page at " + xwikiWebUrl,e);
 		}
 		
-		//TODO : Markup should be mutualized with BlogController / downloadAttachment mapping
-		htmlResult = htmlResult.replace("\"/bin/download","\""+PROXYFIED_FOLDER);
-		
+		// attachments links to the proxy, see xwiki.html
+		htmlResult = rewriterChain.rewrite(htmlResult);
+		metrics.htmlExtraction(sample, "class", htmlResult != null);
 		return htmlResult;
 	}
 	
 	
-	 public String renderXWiki20SyntaxAsXHTML(String contentXwiki21)
-	    {
-	        try {
-				// Initialize Rendering components and allow getting instances
-				EmbeddableComponentManager cm = new EmbeddableComponentManager();
-				cm.initialize(this.getClass().getClassLoader());
-
-				// Use the Converter component to convert between one syntax to another.
-				Converter converter = cm.getInstance(Converter.class);
-
-				// Convert input in XWiki Syntax 2.1 into XHTML. The result is stored in the printer.
-				WikiPrinter printer = new DefaultWikiPrinter();
-				converter.convert(new StringReader(contentXwiki21), Syntax.XWIKI_2_1, Syntax.XHTML_1_0, printer);
+	/**
+	 * Render xwiki/2.1 content to XHTML, with the shared rendering components
+	 * @param contentXwiki21
+	 * @return
+	 */
+	public String renderXWiki20SyntaxAsXHTML(String contentXwiki21) {
+		String html = render(contentXwiki21, Syntax.XWIKI_2_1.toIdString());
+		return html != null ? html : "Error while rendering XWiki content to XHTML.";
+	}
 
-				return printer.toString();
-			} catch (Exception e) {
-				LOGGER.error("Error while rendering XWiki content to XHTML.",e);
-				return "Error while rendering XWiki content to XHTML.";
-			}
-	       
-	    }
+	/**
+	 * Render the content of a page locally, in its own syntax
+	 * @param content
+	 * @param syntaxId
+	 * @return the XHTML, null if it can not be rendered locally
+	 */
+	public String render(String content, String syntaxId) {
+		return rewriterChain.rewrite(renderingService.render(content, syntaxId));
+	}
 	
 	
 	// TODO : Below should be in XWikiConstantsResourcesPath ?
@@ -0,0 +1,204 @@
+package org.open4goods.xwiki.services;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientResponseException;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+
+/**
+ * Meters of the calls to the xwiki server
+ * Requests are tagged by a resource template (page, pages, objects, properties, attachments, search, view, download,
+ * login, other) and by outcome, never by url, to keep a low cardinality
+ *
+ * xwiki.http.requests: request latency (extraction of streamed responses included, headers only for attachment streams)
+ * xwiki.http.response.size: response body size in bytes, when known
+ * xwiki.mapping.deserialization: json mapping, by target type (reading the body included when streamed)
+ * xwiki.html.extraction: html extraction of fetched pages, by source (content block, view and class post-processing)
+ * and outcome (MISS when nothing was extracted)
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiMetrics {
+
+	public static final String REQUESTS = "xwiki.http.requests";
+	public static final String RESPONSE_SIZE = "xwiki.http.response.size";
+	public static final String DESERIALIZATION = "xwiki.mapping.deserialization";
+	public static final String HTML_EXTRACTION = "xwiki.html.extraction";
+
+	// outcome of a response read without error, but nothing extracted from
+	public static final String MISS = "MISS";
+
+	private final MeterRegistry meterRegistry;
+
+	public XWikiMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	public Timer.Sample start() {
+		return Timer.start(meterRegistry);
+	}
+
+	/**
+	 * Record a request which returned 'result' (a ResponseEntity or an extracted object)
+	 * @param sample
+	 * @param resource see {@link #resource(String)}
+	 * @param result
+	 */
+	public void request(Timer.Sample sample, String resource, Object result) {
+		if (result instanceof ResponseEntity<?> response) {
+			request(sample, resource, response.getStatusCode());
+			long size = response.getHeaders().getContentLength();
+			if (size < 0 && response.getBody() instanceof byte[] bytes) {
+				size = bytes.length;
+			} else if (size < 0 && response.getBody() instanceof String body) {
+				MediaType type = response.getHeaders().getContentType();
+				size = encodedLength(body, type == null || type.getCharset() == null ? StandardCharsets.UTF_8 : type.getCharset());
+			}
+			responseSize(resource, size);
+		} else {
+			// extracted without error, null if the response had nothing to extract
+			stop(sample, resource, result == null ? MISS : Outcome.SUCCESS.name());
+		}
+	}
+
+	/**
+	 * @param sample
+	 * @param resource
+	 * @param status response status, null if there was no response (io error...)
+	 */
+	public void request(Timer.Sample sample, String resource, HttpStatusCode status) {
+		stop(sample, resource, (status == null ? Outcome.UNKNOWN : Outcome.forStatus(status.value())).name());
+	}
+
+	/**
+	 * Record a failed request
+	 * @param sample
+	 * @param resource
+	 * @param error
+	 */
+	public void request(Timer.Sample sample, String resource, Throwable error) {
+		request(sample, resource, error instanceof RestClientResponseException response ? response.getStatusCode() : null);
+	}
+
+	/**
+	 * @param resource
+	 * @param size bytes, ignored if negative (unknown)
+	 */
+	public void responseSize(String resource, long size) {
+		if (size < 0) {
+			return;
+		}
+		DistributionSummary.builder(RESPONSE_SIZE)
+				.baseUnit("bytes")
+				.tag("resource", resource)
+				.register(meterRegistry)
+				.record(size);
+	}
+
+	/**
+	 * @param sample
+	 * @param type mapped class simple name
+	 * @param success
+	 */
+	public void deserialization(Timer.Sample sample, String type, boolean success) {
+		sample.stop(Timer.builder(DESERIALIZATION)
+				.tag("type", type)
+				.tag("outcome", success ? Outcome.SUCCESS.name() : "FAILURE")
+				.register(meterRegistry));
+	}
+
+	/**
+	 * @param sample
+	 * @param source content (content block of a full page), view (page post-processing), class (class sheet)
+	 * @param extracted false if nothing could be extracted
+	 */
+	public void htmlExtraction(Timer.Sample sample, String source, boolean extracted) {
+		sample.stop(Timer.builder(HTML_EXTRACTION)
+				.tag("source", source)
+				.tag("outcome", extracted ? Outcome.SUCCESS.name() : MISS)
+				.register(meterRegistry));
+	}
+
+	/**
+	 * Size in bytes of 'text' once encoded in 'charset' (the size on the wire of a decoded body)
+	 * UTF-8 is counted without encoding the text
+	 */
+	static long encodedLength(String text, Charset charset) {
+		if (!StandardCharsets.UTF_8.equals(charset)) {
+			return text.getBytes(charset).length;
+		}
+		long length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				// supplementary character: 4 bytes for the pair
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private void stop(Timer.Sample sample, String resource, String outcome) {
+		sample.stop(Timer.builder(REQUESTS)
+				.tag("resource", resource)
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+	}
+
+	/**
+	 * Resource template of an xwiki url
+	 * @param url rest or web url
+	 * @return page, pages, objects, properties, attachments, search, view, download, login or other
+	 */
+	public static String resource(String url) {
+		if (url == null) {
+			return "other";
+		}
+		int query = url.indexOf('?');
+		String path = query < 0 ? url : url.substring(0, query);
+		if (path.contains("/bin/download/")) {
+			return "download";
+		}
+		if (path.contains("/bin/login")) {
+			return "login";
+		}
+		if (path.contains("/bin/")) {
+			return "view";
+		}
+		if (path.contains("/query") || path.contains("/search")) {
+			return "search";
+		}
+		if (path.contains("/properties")) {
+			return "properties";
+		}
+		if (path.contains("/objects")) {
+			return "objects";
+		}
+		if (path.contains("/attachments")) {
+			return "attachments";
+		}
+		if (path.endsWith("/pages") || path.endsWith("/pages/")) {
+			return "pages";
+		}
+		if (path.contains("/pages/")) {
+			return "page";
+		}
+		return "other";
+	}
+}
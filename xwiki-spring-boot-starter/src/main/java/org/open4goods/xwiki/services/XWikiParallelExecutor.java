@@ -0,0 +1,145 @@
+package org.open4goods.xwiki.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs independent xwiki requests (one per page...) in parallel
+ * The number of concurrent requests to the xwiki server is bounded by a semaphore,
+ * whatever the executor (virtual threads by default)
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiParallelExecutor {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(XWikiParallelExecutor.class);
+
+	private final ExecutorService executor;
+	private final Semaphore permits;
+
+	/**
+	 *
+	 * @param executor executor running the requests
+	 * @param maxConcurrency max concurrent requests to the xwiki server
+	 */
+	public XWikiParallelExecutor(ExecutorService executor, int maxConcurrency) {
+		this.executor = executor;
+		this.permits = new Semaphore(Math.max(1, maxConcurrency));
+	}
+
+	/**
+	 * Virtual threads, at most 'maxConcurrency' concurrent requests
+	 * Default of the services built without an executor
+	 * @param maxConcurrency
+	 * @return
+	 */
+	public static XWikiParallelExecutor virtualThreads(int maxConcurrency) {
+		return new XWikiParallelExecutor(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("xwiki-fetch-", 0).factory()), maxConcurrency);
+	}
+
+	/**
+	 * Apply 'fetcher' to each item, in parallel
+	 * A failing item is logged and skipped, as well as a null result
+	 *
+	 * @param items
+	 * @param fetcher
+	 * @return results, in the items order
+	 */
+	public <S, T> List<T> fetchAll(List<S> items, Function<S, T> fetcher) {
+
+		List<Future<T>> futures = new ArrayList<>(items.size());
+		for (S item : items) {
+			futures.add(executor.submit(() -> {
+				permits.acquire();
+				try {
+					return fetcher.apply(item);
+				} finally {
+					permits.release();
+				}
+			}));
+		}
+
+		List<T> results = new ArrayList<>(items.size());
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				T result = futures.get(i).get();
+				if (result != null) {
+					results.add(result);
+				}
+			} catch (ExecutionException e) {
+				// do not stop process, just log error and skip this item
+				LOGGER.warn("Exception raised while fetching {} - error:{}", items.get(i), e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				LOGGER.warn("Interrupted while fetching {} items, {} fetched", items.size(), results.size());
+				futures.forEach(f -> f.cancel(true));
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Run 'supplier' asynchronously, bounded by the same concurrency limit
+	 * Note: do not block on the returned future from inside another bounded task
+	 *
+	 * @param supplier
+	 * @return
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CompletionException(e);
+			}
+			try {
+				return supplier.get();
+			} finally {
+				permits.release();
+			}
+		}, executor);
+	}
+
+	/**
+	 * Wait for 'future' and return its result
+	 * The original runtime exception (ResponseStatusException...) is thrown if the computation failed
+	 *
+	 * @param future
+	 * @return
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			if (e.getCause() instanceof Error error) {
+				throw error;
+			}
+			throw e;
+		}
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
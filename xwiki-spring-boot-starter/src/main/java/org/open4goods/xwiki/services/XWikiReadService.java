@@ -5,17 +5,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.open4goods.xwiki.config.UrlManagementHelper;
 import org.open4goods.xwiki.config.XWikiConstantsRelations;
 import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiFetchProperties.PageFetchMode;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.web.server.ResponseStatusException;
 import org.xwiki.rest.model.jaxb.Attachment;
 import org.xwiki.rest.model.jaxb.Attachments;
@@ -33,7 +37,7 @@ import org.xwiki.rest.model.jaxb.SearchResults;
  * 
  * @author Thierry.Ledan
  */            
-
+@CacheConfig(cacheResolver = "xwikiCacheResolver", keyGenerator = "xwikiCacheKeyGenerator")
 public class XWikiReadService {
 
 	private static Logger LOGGER = LoggerFactory.getLogger(XWikiReadService.class);
@@ -42,11 +46,31 @@ public class XWikiReadService {
 	private XWikiConstantsResourcesPath resourcesPathManager;
 	private XwikiMappingService mappingService;
 	private UrlManagementHelper urlHelper;
+	private XWikiParallelExecutor parallelExecutor;
+	// optional, groups and members served from memory once loaded
+	private XWikiDirectoryService directory;
 	
 	public XWikiReadService (XwikiMappingService mappingService, XWikiServiceProperties xWikiProperties) {
+		this(mappingService, XWikiParallelExecutor.virtualThreads(xWikiProperties.getFetch().getMaxConcurrency()), xWikiProperties);
+	}
+	
+	public XWikiReadService (XwikiMappingService mappingService, XWikiParallelExecutor parallelExecutor, XWikiServiceProperties xWikiProperties) {
+		this(mappingService, parallelExecutor, xWikiProperties, null);
+	}
+	
+	/**
+	 * 
+	 * @param mappingService
+	 * @param parallelExecutor
+	 * @param xWikiProperties
+	 * @param directory in-memory users and groups, null to always ask xwiki
+	 */
+	public XWikiReadService (XwikiMappingService mappingService, XWikiParallelExecutor parallelExecutor, XWikiServiceProperties xWikiProperties, XWikiDirectoryService directory) {
 		
+		this.directory = directory;
 		this.xWikiProperties = xWikiProperties;
 		this.mappingService = mappingService;
+		this.parallelExecutor = parallelExecutor;
 		this.resourcesPathManager = new XWikiConstantsResourcesPath(xWikiProperties.getBaseUrl(), xWikiProperties.getApiEntrypoint(), xWikiProperties.getApiWiki());
 		this.urlHelper = new UrlManagementHelper(xWikiProperties);
 		
@@ -72,8 +96,19 @@ public class XWikiReadService {
 	 * @return the Page object from GET request 
 	 * 
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.PAGES_CACHE_NAME)
 	public Page getPage(String wikiPath) throws ResponseStatusException {
+		return fetchPage(wikiPath, null);
+	}
+	
+	/**
+	 * Same as {@link #getPage(String)}, without cache, for the 'locale' translation of the page
+	 * 
+	 * @param wikiPath path to the page
+	 * @param locale translation, null for the default one
+	 * @return the Page object from GET request 
+	 */
+	public Page fetchPage(String wikiPath, Locale locale) throws ResponseStatusException {
 
 		// TODO : Mutualize
 		String [] path = wikiPath.split("/|\\.|:");
@@ -90,6 +125,10 @@ public class XWikiReadService {
 		spacePath.append(StringUtils.join(spaces,"/spaces/"));
 		spacePath.append("/pages/");
 		spacePath.append(page);
+		if( locale != null && StringUtils.isNotEmpty(locale.getLanguage()) ) {
+			spacePath.append("/translations/");
+			spacePath.append(locale.toLanguageTag());
+		}
 		
 		return this.mappingService.mapPage(spacePath.toString());
 	}
@@ -106,7 +145,7 @@ public class XWikiReadService {
 	 * @return the Pages object from GET request 
 	 * 
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.PAGE_LISTS_CACHE_NAME)
 	public Pages getPages(String spacePath) throws ResponseStatusException {
 		// replace '.' with '/spaces/' to get all nested spaces if needed
 		String pathToPages = spacePath.replace(".", "/spaces/");
@@ -121,7 +160,7 @@ public class XWikiReadService {
 	 * @param spacePath
 	 * @return A List of 'Page' object, could be empty, never null
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.PAGE_LISTS_CACHE_NAME)
 	public List<Page> getPagesList(String spacePath) throws ResponseStatusException {
 		
 		Pages pages = null;
@@ -130,73 +169,99 @@ public class XWikiReadService {
 		String pathTopage = spacePath.replace(".", "/spaces/");
 		pages = this.mappingService.mapPages(resourcesPathManager.getPagesEndpoint(pathTopage));
 		
-		// Loop on PageSummary list in order to create Page list
+		// Create a Page from each PageSummary, in parallel (bounded), keeping the summaries order
 		if( pages != null && !pages.getPageSummaries().isEmpty() ) {
 			
-			Page tempPage = null;
-			
-			for(PageSummary p: pages.getPageSummaries()) {
-				
-				// get page endpoint
-				// TODO: add request param to url in order to get fields that are disabled by default
-				String pageEndpoint =  urlHelper.getHref(XWikiConstantsRelations.REL_PAGE, p.getLinks());
-				tempPage = this.mappingService.mapPage(pageEndpoint);
-
-				if( tempPage != null ) {
-					pagesList.add(tempPage);
-					
-					//--------------------------
-					// fetch attachments
-					//-------------------------
-					try {
-						Attachments attachments = this.mappingService.getAttachments(tempPage);
-						if( attachments != null && attachments.getAttachments() != null && attachments.getAttachments().size()  > 0 ) {
-							// update url (scheme, query params..) according to application properties
-							for(Attachment attachment: attachments.getAttachments()) {
-								attachment.setXwikiAbsoluteUrl(this.urlHelper.updateUrlScheme(attachment.getXwikiAbsoluteUrl()));
-								attachment.setXwikiRelativeUrl(this.urlHelper.updateUrlScheme(attachment.getXwikiRelativeUrl()));
-							}
-							tempPage.setAttachments(attachments);
-						}
-					} catch( Exception e ) {
-						// do not stop process, just log error and return page without attachments
-						LOGGER.warn("Exception raised while getting attachments from Page {}", pageEndpoint );
-					}
+			pagesList = parallelExecutor.fetchAll(pages.getPageSummaries(), summary -> {
+				try {
+					return getPage(summary);
+				} catch( Exception e ) {
+					// do not stop process, just log error and skip this page
+					LOGGER.warn("Exception raised while getting Page {} - error:{}", summary.getName(), e.getMessage());
+					return null;
+				}
+			});
+		} else {
+			  throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No Page in space '" + pathTopage + "'");
+		}	
+		return pagesList;
+	}
+	
+	
+	/**
+	 * Create a 'Page' from a PageSummary, with its attachments and objects.
+	 * In SINGLE_REQUEST fetch mode, attachments, objects and class are embedded in the page response,
+	 * an extra request is only made for a field that the server did not return.
+	 * 
+	 * @param summary
+	 * @return the Page, null if not found
+	 */
+	private Page getPage(PageSummary summary) {
+		
+		// get page endpoint
+		String pageEndpoint =  urlHelper.getHref(XWikiConstantsRelations.REL_PAGE, summary.getLinks());
+		if( xWikiProperties.getFetch().getPageMode() == PageFetchMode.SINGLE_REQUEST ) {
+			String embeddedFieldsEndpoint = urlHelper.withEmbeddedPageFields(pageEndpoint);
+			if( embeddedFieldsEndpoint != null ) {
+				pageEndpoint = embeddedFieldsEndpoint;
+			}
+		}
+		Page page = this.mappingService.mapPage(pageEndpoint);
 
-					//------------------------------------
-					// fetch properties
-					//------------------------------------
-					try {
-					} catch( Exception e ) {
-						// do not stop process, just log error and return page without properties
-					}
-						
-					//------------------------------------
-					// fetch objects
-					//------------------------------------
-					try {
-						Objects objects = this.mappingService.getPageObjects(tempPage);
-						if( objects != null ) {
-							tempPage.setObjects(objects);
-						}
-					} catch( Exception e ) {
-						// do not stop process, just log error and return page without properties
-						LOGGER.warn("Exception raised while getting properties from Page {}", pageEndpoint);
+		if( page != null ) {
+			// the mapped page can be shared (coalesced requests, revalidation cache): completed on a copy
+			page = copy(page, new Page());
+			//--------------------------
+			// fetch attachments
+			//-------------------------
+			try {
+				Attachments attachments = page.getAttachments();
+				if( attachments == null ) {
+					attachments = this.mappingService.getAttachments(page);
+				}
+				if( attachments != null && attachments.getAttachments() != null && attachments.getAttachments().size()  > 0 ) {
+					// update url (scheme, query params..) according to application properties
+					Attachments updated = new Attachments();
+					updated.getLinks().addAll(attachments.getLinks());
+					for(Attachment attachment: attachments.getAttachments()) {
+						Attachment copy = copy(attachment, new Attachment());
+						copy.setXwikiAbsoluteUrl(this.urlHelper.updateUrlScheme(attachment.getXwikiAbsoluteUrl()));
+						copy.setXwikiRelativeUrl(this.urlHelper.updateUrlScheme(attachment.getXwikiRelativeUrl()));
+						updated.getAttachments().add(copy);
 					}
+					page.setAttachments(updated);
+				}
+			} catch( Exception e ) {
+				// do not stop process, just log error and return page without attachments
+				LOGGER.warn("Exception raised while getting attachments from Page {}", pageEndpoint );
+			}
 
-					//------------------------------------
-					// TODO: fetch classes
-					//------------------------------------
-					try {
-					} catch( Exception e ) {
-						// do not stop process, just log error and return page without attachments
+			//------------------------------------
+			// fetch objects
+			//------------------------------------
+			try {
+				if( page.getObjects() == null ) {
+					Objects objects = this.mappingService.getPageObjects(page);
+					if( objects != null ) {
+						page.setObjects(objects);
 					}
 				}
+			} catch( Exception e ) {
+				// do not stop process, just log error and return page without properties
+				LOGGER.warn("Exception raised while getting properties from Page {}", pageEndpoint);
 			}
-		} else {
-			  throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No Page in space '" + pathTopage + "'");
-		}	
-		return pagesList;
+
+			// Note: class is only available in SINGLE_REQUEST mode
+		}
+		return page;
+	}
+	
+	/**
+	 * Shallow copy of a mapped object: fields are set on the copy without touching the source
+	 */
+	private static <T> T copy(T source, T target) {
+		ReflectionUtils.shallowCopyFieldState(source, target);
+		return target;
 	}
 	
 	
@@ -207,7 +272,7 @@ public class XWikiReadService {
 	 * @param pageName name of 'page'
 	 * @return
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.PROPERTIES_CACHE_NAME)
 	public Map<String,String> getProperties(String spaces, String pageName) throws ResponseStatusException {
 		Map<String,String> props = new HashMap<String, String>();
 		// replace '.' with '/spaces/' to get all nested spaces if needed
@@ -230,11 +295,15 @@ public class XWikiReadService {
 	/**
 	 * Get all groups pageName
 	 * discard "XWikiGroupTemplate"  
+	 * Not cached once the directory is loaded, which is always in sync
 	 * TODO : XwikiAuthService
 	 * @return
 	 */
-	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+	@Cacheable(cacheNames = XWikiServiceProperties.GROUPS_CACHE_NAME, condition = "!#root.target.directoryLoaded")
 	public List<String> getGroupsName(){
+		if( isDirectoryLoaded() ) {
+			return new ArrayList<String>(directory.getGroups());
+		}
 		List<String> groups = new ArrayList<String>();
 		SearchResults results = this.mappingService.mapSearchResults(resourcesPathManager.getGroupsEndpoint());
 		if( results != null && !results.getSearchResults().isEmpty()) {
@@ -248,6 +317,13 @@ public class XWikiReadService {
 	}
 	
 	
+	/**
+	 * @return true if groups and members are served by the in-memory directory
+	 */
+	public boolean isDirectoryLoaded() {
+		return directory != null && directory.isLoaded();
+	}
+	
 	/**
 	 * Get users name for a group
 	 * 
@@ -256,8 +332,11 @@ public class XWikiReadService {
 	 * @param groupPageName
 	 * @return
 	 */
-//	@Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
+//	@Cacheable(cacheNames = XWikiServiceProperties.GROUPS_CACHE_NAME)
 	public List<String> getGroupUsers(String groupPageName) {
+		if( isDirectoryLoaded() ) {
+			return new ArrayList<String>(directory.getGroupUsers(groupPageName));
+		}
 		// https://wiki.nudger.fr/rest/wikis/xwiki/spaces/XWiki/pages/SiteEditor/objects?media=json
 		List<String> users = new ArrayList<String>();
 		Objects objects = this.mappingService.getObjects(resourcesPathManager.getGroupUsers(groupPageName));
@@ -0,0 +1,147 @@
+package org.open4goods.xwiki.services;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.open4goods.xwiki.cache.XWikiCacheResolver;
+import org.open4goods.xwiki.config.XWikiCacheProperties;
+import org.open4goods.xwiki.config.XWikiCacheProperties.CacheSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.rendering.converter.Converter;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.syntax.SyntaxRegistry;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Local rendering of xwiki content to XHTML
+ * The component manager (classpath scan and wiring) is initialized once, on first use,
+ * then its Converter is shared: parsers are singletons and a new renderer is created per conversion
+ * Rendered XHTML is cached by a hash of the syntax and the source, so an unchanged content is rendered once
+ * whatever the page version or translation it comes from
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiRenderingService {
+
+	private static Logger LOGGER = LoggerFactory.getLogger(XWikiRenderingService.class);
+
+	private volatile EmbeddableComponentManager componentManager;
+	private volatile Converter converter;
+	// resolves the syntax ids ('xwiki/2.1', 'markdown/1.2'...) registered by the parsers on the classpath
+	private volatile SyntaxRegistry syntaxRegistry;
+
+	// XHTML by content hash
+	private final Cache<String, String> rendered;
+
+	public XWikiRenderingService() {
+		this(new XWikiCacheProperties().getRendered(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 *
+	 * @param spec rendered XHTML cache
+	 * @param executor cache maintenance executor
+	 */
+	public XWikiRenderingService(CacheSpec spec, Executor executor) {
+		this.rendered = XWikiCacheResolver.newBuilder(spec, executor).build();
+	}
+
+	/**
+	 * Render 'content' to XHTML, from the cache if the same content was already rendered
+	 * @param content
+	 * @param syntaxId syntax of the content ('xwiki/2.1'...), null for xwiki/2.1
+	 * @return the XHTML, null if it can not be rendered locally
+	 */
+	public String render(String content, String syntaxId) {
+		if (content == null) {
+			return null;
+		}
+		String syntax = syntaxId == null ? Syntax.XWIKI_2_1.toIdString() : syntaxId;
+		// failures (null) are not cached
+		return rendered.get(contentKey(syntax, content), key -> convert(content, syntax));
+	}
+
+	/**
+	 * Render 'content' with the xwiki components, without cache
+	 * @param content
+	 * @param syntaxId
+	 * @return the XHTML, null if it can not be rendered
+	 */
+	protected String convert(String content, String syntaxId) {
+		try {
+			WikiPrinter printer = new DefaultWikiPrinter();
+			Converter ret = getConverter();
+			ret.convert(new StringReader(content), syntaxRegistry.resolveSyntax(syntaxId), Syntax.XHTML_1_0, printer);
+			return printer.toString();
+		} catch (Exception e) {
+			LOGGER.error("Error while rendering {} content to XHTML - error:{}", syntaxId, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Forget all the rendered XHTML (after a rendering configuration change...)
+	 */
+	public void evictAll() {
+		rendered.invalidateAll();
+	}
+
+	private Converter getConverter() throws Exception {
+		Converter ret = converter;
+		if (ret == null) {
+			synchronized (this) {
+				if (converter == null) {
+					long start = System.currentTimeMillis();
+					EmbeddableComponentManager cm = new EmbeddableComponentManager();
+					cm.initialize(getClass().getClassLoader());
+					syntaxRegistry = cm.getInstance(SyntaxRegistry.class);
+					converter = cm.getInstance(Converter.class);
+					componentManager = cm;
+					LOGGER.info("XWiki rendering components initialized in {} ms", System.currentTimeMillis() - start);
+				}
+				ret = converter;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Release the rendering components
+	 */
+	public synchronized void dispose() {
+		if (componentManager != null) {
+			componentManager.dispose();
+			componentManager = null;
+			converter = null;
+			syntaxRegistry = null;
+		}
+	}
+
+	/**
+	 * SHA-256 of the syntax id and the content, independent of the page and the node it is computed on
+	 * @param syntaxId
+	 * @param content
+	 * @return
+	 */
+	static String contentKey(String syntaxId, String content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(syntaxId.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(content.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.open4goods.xwiki.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Single-flight requests to the xwiki server
+ * Concurrent identical requests (same url, identity and result type) share the call of the first one:
+ * a single upstream request is made, and its result (or exception) is handed to every waiter.
+ * Note: waiters get the same instance, which must not be modified
+ *
+ * Metric : xwiki.http.coalesced, number of requests served by another in-flight request
+ *
+ * @author Thierry.Ledan
+ */
+public class XWikiRequestCoalescer {
+
+	/**
+	 * In-flight request identity
+	 * @param url cleaned url
+	 * @param identity user the request is authenticated as
+	 * @param type result type, tells apart requests to the same url with different results
+	 */
+	public record Key(String url, String identity, Class<?> type) {
+	}
+
+	private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+	private final int maxInFlight;
+	private final Counter coalesced;
+
+	/**
+	 *
+	 * @param maxInFlight max distinct in-flight requests tracked, requests beyond are not coalesced
+	 * @param meterRegistry
+	 */
+	public XWikiRequestCoalescer(int maxInFlight, MeterRegistry meterRegistry) {
+		this.maxInFlight = maxInFlight;
+		this.coalesced = meterRegistry.counter("xwiki.http.coalesced");
+	}
+
+	/**
+	 * Run 'call', or wait for the in-flight call with the same key
+	 * @param key
+	 * @param call
+	 * @return result of the call
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(Key key, Supplier<T> call) {
+
+		if (inFlight.size() >= maxInFlight) {
+			return call.get();
+		}
+
+		CompletableFuture<Object> own = new CompletableFuture<>();
+		CompletableFuture<Object> running = inFlight.putIfAbsent(key, own);
+		if (running != null) {
+			coalesced.increment();
+			return (T) XWikiParallelExecutor.join(running);
+		}
+
+		try {
+			T result = call.get();
+			own.complete(result);
+			return result;
+		} catch (Throwable e) {
+			// errors too: waiters must never be left on a future that will not complete
+			own.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, own);
+		}
+	}
+
+	/**
+	 * @return number of requests currently in flight
+	 */
+	public int inFlight() {
+		return inFlight.size();
+	}
+}
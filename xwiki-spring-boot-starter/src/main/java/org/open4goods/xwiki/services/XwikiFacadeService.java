@@ -1,19 +1,34 @@
 package org.open4goods.xwiki.services;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.StringUtils;
+import org.open4goods.xwiki.cache.XWikiCacheResolver;
 import org.open4goods.xwiki.config.UrlManagementHelper;
 import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.model.AttachmentStream;
 import org.open4goods.xwiki.model.FullPage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.xwiki.rest.model.jaxb.Attachment;
 import org.xwiki.rest.model.jaxb.Page;
 import org.xwiki.rest.model.jaxb.Pages;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 /**
  * An Xwiki facade service, which encapsulates xwiki unitary services to deliver
  * high level  wiki content to spring boot web translation
@@ -34,50 +49,179 @@ public class XwikiFacadeService {
 
 	private XWikiConstantsResourcesPath pathHelper;
 	
+	private final XWikiParallelExecutor parallelExecutor;
+	
+	// one entry per page reference and locale, bounded by the estimated size of the FullPages
+	private final AsyncLoadingCache<FullPageKey, FullPage> fullPageCache;
+	
+	private record FullPageKey(String reference, Locale locale) {
+	}
+	
 
 	public XwikiFacadeService( XwikiMappingService mappingService, XWikiObjectService xWikiObjectService, XWikiHtmlService xWikiHtmlService,XWikiReadService xWikiReadService, XWikiObjectService xWikiObjectService2, XWikiHtmlService xWikiHtmlService2, XWikiServiceProperties properties) {
+		this(mappingService, xWikiObjectService, xWikiHtmlService, xWikiReadService, xWikiObjectService2, xWikiHtmlService2, 
+				XWikiParallelExecutor.virtualThreads(properties.getFetch().getMaxConcurrency()), properties);
+	}
+	
+	public XwikiFacadeService( XwikiMappingService mappingService, XWikiObjectService xWikiObjectService, XWikiHtmlService xWikiHtmlService,XWikiReadService xWikiReadService, XWikiObjectService xWikiObjectService2, XWikiHtmlService xWikiHtmlService2, XWikiParallelExecutor parallelExecutor, XWikiServiceProperties properties) {
 		this.mappingService = mappingService;		
+		this.parallelExecutor = parallelExecutor;
 		this.xWikiReadService = xWikiReadService;
 		this.xWikiHtmlService = xWikiHtmlService2;
 		this.xWikiObjectService = xWikiObjectService2;
 		this.properties = properties;
 		this.urlHelper = new UrlManagementHelper(properties);
 		this.pathHelper = new XWikiConstantsResourcesPath(properties.getBaseUrl(), properties.getApiEntrypoint(), properties.getApiWiki());
+		
+		this.fullPageCache = XWikiCacheResolver.newBuilder(properties.getCache().getFullPage(), parallelExecutor.getExecutor())
+				.buildAsync((key, executor) -> buildFullPage(key.reference(), key.locale()));
 
 	}
 	
-	// TODO : I18n
-	// @Cacheable(cacheNames = XWikiServiceProperties.SPRING_CACHE_NAME)
 	public FullPage getFullPage (String path) {
-		FullPage ret = new FullPage();
+		return getFullPage(path, (Locale) null);
+	}
+
+	public FullPage getFullPage(String space, String name) {
+		return getFullPage(space+":"+name);
+	}
+	
+	/**
+	 * Get the FullPage for the 'locale' translation of the page (null for the default one)
+	 * Served from the FullPage cache, built if missing or expired
+	 * 
+	 * @param path
+	 * @param locale
+	 * @return
+	 */
+	public FullPage getFullPage (String path, Locale locale) {
+		return XWikiParallelExecutor.join(getFullPageAsync(path, locale));
+	}
+	
+	public CompletableFuture<FullPage> getFullPageAsync(String path) {
+		return getFullPageAsync(path, (Locale) null);
+	}
+	
+	public CompletableFuture<FullPage> getFullPageAsync(String space, String name) {
+		return getFullPageAsync(space+":"+name);
+	}
+	
+	/**
+	 * Get the FullPage asynchronously, from the FullPage cache
+	 * Concurrent calls for a missing entry share the same build
+	 * 
+	 * @param path
+	 * @param locale
+	 * @return
+	 */
+	public CompletableFuture<FullPage> getFullPageAsync(String path, Locale locale) {
+		return fullPageCache.get(fullPageKey(path, locale));
+	}
+	
+	/**
+	 * Build the FullPage asynchronously, html, page and properties are fetched without the unitary caches
+	 * The html rendering is fetched alongside the page -> properties chain,
+	 * so the latency is the slowest of both instead of the sum of all requests
+	 * 
+	 * @param path
+	 * @param locale
+	 * @return
+	 */
+	private CompletableFuture<FullPage> buildFullPage(String path, Locale locale) {
+		
+		CompletableFuture<Page> wikiPage = parallelExecutor.supplyAsync(() -> xWikiReadService.fetchPage(path, locale));
 		
-		String htmlContent = xWikiHtmlService.html(path.replaceAll("\\.|:","/"));
-		// TODO : When xwiki jakarta compliant
-//		String htmlContent = xWikiHtmlService.renderXWiki20SyntaxAsXHTML(wikiPage.getContent());
+		CompletableFuture<String> htmlContent = this.properties.getRendering().isLocal()
+				// rendered from the page content, no /bin/view round trip
+				? wikiPage.thenCompose(page -> parallelExecutor.supplyAsync(() -> renderHtml(page, path, locale)))
+				: parallelExecutor.supplyAsync(() -> xWikiHtmlService.fetchHtml(path.replaceAll("\\.|:","/"), locale));
 		
-		Page wikiPage  = xWikiReadService.getPage(path);
 		// TODO : Seems useless
 //		Objects objects = mappingService.getPageObjects(wikiPage);
-		Map<String, String> properties = xWikiObjectService.getProperties(wikiPage);
-	
-		ret.setHtmlContent(htmlContent);
-		ret.setWikiPage(wikiPage);
-//		ret.setObjects(objects);
-		ret.setProperties(properties);
-		
+		CompletableFuture<Map<String, String>> properties = wikiPage.thenCompose(page -> parallelExecutor.supplyAsync(() -> xWikiObjectService.getProperties(page)));
 		
-		return ret;		
+		return CompletableFuture.allOf(htmlContent, properties).thenApply(done -> {
+			FullPage ret = new FullPage();
+			ret.setReference(fullPageReference(path));
+			ret.setLocale(locale);
+			ret.setHtmlContent(htmlContent.join());
+			Page page = wikiPage.join();
+			ret.setWikiPage(page);
+			if( page != null ) {
+				ret.setVersion(page.getVersion());
+				ret.setModified(page.getModified());
+			}
+//			ret.setObjects(objects);
+			ret.setProperties(properties.join());
+			return ret;
+		});
 	}
-
-	public FullPage getFullPage(String space, String name) {
-		return getFullPage(space+":"+name);
+	
+	/**
+	 * Render the page content locally, fetch the /bin/view html if it can not be rendered
+	 * @param page
+	 * @param path
+	 * @param locale
+	 * @return
+	 */
+	private String renderHtml(Page page, String path, Locale locale) {
+		String html = page == null ? null : xWikiHtmlService.render(page.getContent(), page.getSyntax());
+		if( html == null ) {
+			html = xWikiHtmlService.fetchHtml(path.replaceAll("\\.|:","/"), locale);
+		}
+		return html;
+	}
+	
+	/**
+	 * Evict the FullPage of a page translation (null locale for the default one)
+	 * @param path
+	 * @param locale
+	 */
+	public void evictFullPage(String path, Locale locale) {
+		fullPageCache.synchronous().invalidate(fullPageKey(path, locale));
+	}
+	
+	/**
+	 * Evict the cached FullPage if it was built from another version of the page
+	 * (to be called when a page modification is notified, with the new version)
+	 * A FullPage still being built is left as is, the caller is never blocked
+	 * @param path
+	 * @param locale
+	 * @param version current page version
+	 * @return true if an outdated entry was evicted
+	 */
+	public boolean evictFullPageIfStale(String path, Locale locale, String version) {
+		FullPageKey key = fullPageKey(path, locale);
+		CompletableFuture<FullPage> cached = fullPageCache.getIfPresent(key);
+		if( cached == null || ! cached.isDone() || cached.isCompletedExceptionally() ) {
+			return false;
+		}
+		FullPage fullPage = cached.join();
+		if( fullPage != null && ! Objects.equals(fullPage.getVersion(), version) ) {
+			// only this entry: a FullPage loaded in the meantime is kept
+			return fullPageCache.asMap().remove(key, cached);
+		}
+		return false;
+	}
+	
+	/**
+	 * Page reference from a path (Space.SubSpace.Page, Space/SubSpace/Page, Space:Page...)
+	 * @param path
+	 * @return the reference as Space.SubSpace.Page
+	 */
+	private String fullPageReference(String path) {
+		return StringUtils.join(path.split("/|\\.|:"), ".");
+	}
+	
+	private FullPageKey fullPageKey(String path, Locale locale) {
+		return new FullPageKey(fullPageReference(path), locale);
 	}
 	
 	
 	/**
 	 * 
 	 * @param url
-	 * TODO : Should provide a streamed version 
+	 * Buffers the whole attachment, see {@link #openAttachment(String, String, String, HttpHeaders)} for a streamed version
 	 * @return
 	 */
 	public byte[] downloadAttachment( String space, String page, String attachmentName) {
@@ -94,6 +238,72 @@ public class XwikiFacadeService {
 	}
 
 	
+	/**
+	 * Streamed download of an attachment
+	 * @param space
+	 * @param page
+	 * @param attachmentName
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the request failed
+	 */
+	public AttachmentStream openAttachment( String space, String page, String attachmentName, HttpHeaders forwarded) {
+		String url = pathHelper.getDownloadAttachlmentUrl(space, page, attachmentName);
+		return mappingService.openAttachment(url, forwarded);
+	}
+	
+	/**
+	 * Streamed download of an attachment, from its path relative to the download path (Space/Page/file.pdf)
+	 * @param path decoded path, nested spaces allowed
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the path is invalid or the request failed
+	 */
+	public AttachmentStream openAttachment(String path, HttpHeaders forwarded) {
+		if (path == null) {
+			return null;
+		}
+		return openAttachment(Arrays.asList(path.split("/", -1)), forwarded);
+	}
+	
+	/**
+	 * Streamed download of an attachment, from its decoded path segments (spaces..., page, file.pdf)
+	 * Empty, '.' and '..' segments are rejected, each segment is encoded
+	 * @param segments
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the path is invalid or the request failed
+	 */
+	public AttachmentStream openAttachment(List<String> segments, HttpHeaders forwarded) {
+		URI uri;
+		try {
+			uri = pathHelper.getDownloadAttachmentUri(segments);
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Rejected attachment path {} - {}", segments, e.getMessage());
+			return null;
+		}
+		return mappingService.openAttachment(uri, forwarded);
+	}
+	
+	/**
+	 * Stream an attachment to the servlet response, the client Range and conditional headers are passed through
+	 * The copy uses a fixed size buffer, whatever the attachment size
+	 * @param path attachment path relative to the download path (Space/Page/file.pdf)
+	 * @param request
+	 * @param response
+	 * @return false if the attachment could not be fetched (nothing written)
+	 * @throws IOException
+	 */
+	public boolean streamAttachment(String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		try (AttachmentStream attachment = openAttachment(path, AttachmentStream.forwardedHeaders(request))) {
+			if (attachment == null || attachment.getStatus() == HttpStatus.NOT_FOUND.value()) {
+				return false;
+			}
+			if (attachment.getContentType() == null) {
+				response.setContentType(detectMimeType(path));
+			}
+			attachment.writeTo(response);
+			return true;
+		}
+	}
+	
 	public String detectMimeType (String filename) {
         // TODO : ugly, should fetch the meta (mime type is availlable in xwiki service), but does not work for the blog image, special class and not appears in attachments list
 		if (filename.endsWith(".pdf")) {
@@ -0,0 +1,67 @@
+package org.open4goods.xwiki.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.rest.model.jaxb.Attachments;
+import org.xwiki.rest.model.jaxb.Objects;
+import org.xwiki.rest.model.jaxb.Page;
+import org.xwiki.rest.model.jaxb.Pages;
+import org.xwiki.rest.model.jaxb.Properties;
+import org.xwiki.rest.model.jaxb.SearchResult;
+import org.xwiki.rest.model.jaxb.SearchResults;
+import org.xwiki.rest.model.jaxb.Wiki;
+import org.xwiki.rest.model.jaxb.Wikis;
+import org.xwiki.rest.model.jaxb.Xwiki;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Shared json readers for the XWiki rest model
+ * One configured ObjectMapper, and one immutable (thread safe) ObjectReader per model type,
+ * so Jackson deserializers are built once instead of on every response
+ *
+ * Declare your own 'xwikiJsonReaders' bean to customize the mapper
+ *
+ * @author Thierry.Ledan
+ */
+public class XwikiJsonReaders {
+
+	private final ObjectMapper mapper;
+	private final Map<Class<?>, ObjectReader> readers;
+
+	public XwikiJsonReaders() {
+		this(new ObjectMapper());
+	}
+
+	public XwikiJsonReaders(ObjectMapper mapper) {
+		this.mapper = mapper;
+		this.readers = prebuilt(mapper);
+	}
+
+	/**
+	 * Readers for the model types used by the mapping service
+	 */
+	private static Map<Class<?>, ObjectReader> prebuilt(ObjectMapper mapper) {
+		Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+		for (Class<?> type : new Class<?>[] { Page.class, Pages.class, Objects.class, Properties.class, Attachments.class,
+				SearchResults.class, SearchResult.class, Xwiki.class, Wikis.class, Wiki.class }) {
+			readers.put(type, mapper.readerFor(type));
+		}
+		return readers;
+	}
+
+	/**
+	 * Get the reader dedicated to 'type', created on first use
+	 * @param type
+	 * @return
+	 */
+	public ObjectReader reader(Class<?> type) {
+		return readers.computeIfAbsent(type, mapper::readerFor);
+	}
+
+	public ObjectMapper getMapper() {
+		return mapper;
+	}
+}
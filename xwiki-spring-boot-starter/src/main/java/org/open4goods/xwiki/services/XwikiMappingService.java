@@ -1,5 +1,7 @@
 package org.open4goods.xwiki.services;
 
+import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -8,8 +10,10 @@ import java.util.Map;
 import org.open4goods.xwiki.config.UrlManagementHelper;
 import org.open4goods.xwiki.config.XWikiConstantsRelations;
 import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.model.AttachmentStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.server.ResponseStatusException;
@@ -27,11 +31,11 @@ import org.xwiki.rest.model.jaxb.Wiki;
 import org.xwiki.rest.model.jaxb.Wikis;
 import org.xwiki.rest.model.jaxb.Xwiki;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 
 import io.micrometer.common.util.StringUtils;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 /**
  * Services related to XWiki object mapping 
@@ -46,9 +50,22 @@ public class XwikiMappingService {
 	RestTemplateService restTemplateService;
 	XWikiServiceProperties properties;
 	private UrlManagementHelper urlHelper;
+	private XwikiJsonReaders jsonReaders;
+	// deserialization timings
+	private XWikiMetrics metrics;
 	
 	public XwikiMappingService(RestTemplateService restTemplateService, XWikiServiceProperties properties){
+		this(restTemplateService, new XwikiJsonReaders(), properties);
+	}
+	
+	public XwikiMappingService(RestTemplateService restTemplateService, XwikiJsonReaders jsonReaders, XWikiServiceProperties properties){
+		this(restTemplateService, jsonReaders, new XWikiMetrics(Metrics.globalRegistry), properties);
+	}
+	
+	public XwikiMappingService(RestTemplateService restTemplateService, XwikiJsonReaders jsonReaders, XWikiMetrics metrics, XWikiServiceProperties properties){
+		this.metrics = metrics;
 		this.restTemplateService = restTemplateService;
+		this.jsonReaders = jsonReaders;
 		this.properties = properties;
 		this.urlHelper = new UrlManagementHelper(properties);
 	}
@@ -61,13 +78,8 @@ public class XwikiMappingService {
 	 */
 	public Page mapPage(String endpoint) throws ResponseStatusException {
 
-		Page page = null;
 		// get response from rest server
-		ResponseEntity<String> response = restTemplateService.getRestResponse(endpoint);
-		if (response != null ) {
-			page = deserializePage(response);
-		} 
-		return page;
+		return fetch(endpoint, Page.class);
 	}
 	
 	/**
@@ -77,13 +89,8 @@ public class XwikiMappingService {
 	 */
 	public Pages mapPages(String endpoint) {
 
-		Pages pages = null;
 		// get response from rest server
-		ResponseEntity<String> response = restTemplateService.getRestResponse(endpoint);
-		if (response != null ) {
-			pages = deserializePages(response);
-		} 
-		return pages;
+		return fetch(endpoint, Pages.class);
 	}
 	
 	
@@ -94,12 +101,7 @@ public class XwikiMappingService {
 	 */
 	public SearchResults mapSearchResults(String endpoint) {
 
-		SearchResults results = null;
-		ResponseEntity<String> response = restTemplateService.getRestResponse(endpoint);
-		if( response != null ) {
-			results = deserializeSearchResults(response);
-		}
-		return results;
+		return fetch(endpoint, SearchResults.class);
 	}
 	
 	
@@ -125,13 +127,10 @@ public class XwikiMappingService {
 			// TODO: hard coding - objects.getObjectSummaries().get(0).getLinks() NOT GOOD , try to find the good summary !!
 			String pagePropsEndpoint = urlHelper.getHref(XWikiConstantsRelations.REL_PROPERTIES, objects.getObjectSummaries().get(0).getLinks());
 
-			ResponseEntity<String> response = restTemplateService.getRestResponse(pagePropsEndpoint);
-			if( response != null ) {
-				propertiesObject = deserializeProperties(response);
-				if( propertiesObject != null ) {
-					for(Property prop: propertiesObject.getProperties()) {
-						properties.put(prop.getName(), prop.getValue());
-					}
+			propertiesObject = fetch(pagePropsEndpoint, Properties.class);
+			if( propertiesObject != null ) {
+				for(Property prop: propertiesObject.getProperties()) {
+					properties.put(prop.getName(), prop.getValue());
 				}
 			}
 		}
@@ -162,13 +161,10 @@ public class XwikiMappingService {
 		}
 		// fetch properties
 		if( StringUtils.isNotBlank(propertiesEndpoint) ) {
-			ResponseEntity<String> response = restTemplateService.getRestResponse(propertiesEndpoint);
-			if( response != null ) {
-				propertiesObject = deserializeProperties(response);
-				if( propertiesObject != null ) {
-					for(Property prop: propertiesObject.getProperties()) {
-						properties.put(prop.getName(), prop.getValue());
-					}
+			propertiesObject = fetch(propertiesEndpoint, Properties.class);
+			if( propertiesObject != null ) {
+				for(Property prop: propertiesObject.getProperties()) {
+					properties.put(prop.getName(), prop.getValue());
 				}
 			}
 		}
@@ -197,10 +193,7 @@ public class XwikiMappingService {
 
 		Objects objects = null;
 		if( StringUtils.isNotEmpty(pageEndpoint) ) {
-			ResponseEntity<String> response = restTemplateService.getRestResponse(pageEndpoint);
-			if( response != null ) {
-				objects = deserializeObjects(response);
-			}
+			objects = fetch(pageEndpoint, Objects.class);
 		}
 		return objects;
 	}
@@ -218,11 +211,7 @@ public class XwikiMappingService {
 		// get the attachments url in 'links' set
 		String attachementsUrl = urlHelper.getHref(XWikiConstantsRelations.REL_ATTACHMENTS, page.getLinks());
 		if( StringUtils.isNotBlank(attachementsUrl) ) {
-			ResponseEntity<String> response = null;
-			response = restTemplateService.getRestResponse(attachementsUrl);
-			if( response != null ) {
-				attachments = deserializeAttachments(response);
-			}
+			attachments = fetch(attachementsUrl, Attachments.class);
 		}
 		return attachments;
 	}
@@ -240,13 +229,9 @@ public class XwikiMappingService {
 		// get the url
 		String attachementsUrl = urlHelper.getHref(XWikiConstantsRelations.REL_ATTACHMENTS, page.getLinks());
 		if( StringUtils.isNotBlank(attachementsUrl) ) {
-			ResponseEntity<String> response = null;
-			response = restTemplateService.getRestResponse(attachementsUrl);
-			if( response != null ) {
-				attachments = deserializeAttachments(response);
-				if( attachments != null ) {
-					attachmentsList = attachments.getAttachments();
-				}
+			attachments = fetch(attachementsUrl, Attachments.class);
+			if( attachments != null ) {
+				attachmentsList = attachments.getAttachments();
 			}
 		}
 		return attachmentsList;
@@ -268,7 +253,7 @@ public class XwikiMappingService {
 	/**
 	 * 
 	 * @param url
-	 * TODO : Should provide a streamed version. See IcecatFeatureService.downloadTo()
+	 * Buffers the whole attachment, see {@link #openAttachment(String, HttpHeaders)} for a streamed version
 	 * @return
 	 */
 	public byte[] downloadAttachment( String url ) {
@@ -282,6 +267,28 @@ public class XwikiMappingService {
 	
 	
 	
+	/**
+	 * Streamed download of an attachment
+	 * @param url
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the request failed
+	 */
+	public AttachmentStream openAttachment( String url, HttpHeaders forwarded ) {
+		return restTemplateService.openAttachment(url, forwarded);
+	}
+	
+	/**
+	 * Streamed download of an attachment, from an already encoded uri
+	 * @param uri
+	 * @param forwarded client headers passed through to xwiki (Range...), could be null
+	 * @return the attachment stream (status 404 if removed), to be closed by the caller. Null if the request failed
+	 */
+	public AttachmentStream openAttachment( URI uri, HttpHeaders forwarded ) {
+		return restTemplateService.openAttachment(uri, forwarded);
+	}
+	
+	
+	
 	/**
 	 * Retrieve available wikis
 	 * @param endpoint
@@ -290,12 +297,9 @@ public class XwikiMappingService {
 	public List<Wiki> getAllWikis( String endpoint ){
 
 		List<Wiki> wikisList = new ArrayList<Wiki>();
-		ResponseEntity<String> response = restTemplateService.getRestResponse(endpoint);
-		if(response != null) {
-			Wikis wikis = deserializeWikis(response);
-			if(wikis != null) {
-				wikisList = wikis.getWikis();
-			}
+		Wikis wikis = fetch(endpoint, Wikis.class);
+		if(wikis != null) {
+			wikisList = wikis.getWikis();
 		}
 		return wikisList;
 	}
@@ -353,62 +357,83 @@ public class XwikiMappingService {
 	//-----------------------------------------------------------
 
 	/**
-	 * Deserialize json response to 'Objects' object
-	 * @param response
-	 * @return a 'Attachments' object if the mapping was successful, null otherwise
+	 * Request 'endpoint' and map the json response to 'type'
+	 * With streaming transport (default), the response body stream is handed straight to the json parser,
+	 * otherwise the body is first read as a String
+	 * @param endpoint
+	 * @param type
+	 * @return the mapped object if response and mapping were successful, null otherwise
+	 * @throws ResponseStatusException
 	 */
-	private Objects deserializeObjects(ResponseEntity<String> response) {
-
-		Objects objects = null;
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			objects = mapper.readValue(response.getBody(),new TypeReference<Objects>(){});
-			logger.debug("Object 'Objects' mapped correctly}");
-		}
-		catch(Exception e) {
-			ManageMappingExceptions(e, "Objects", response.getBody());
+	private <T> T fetch(String endpoint, Class<T> type) throws ResponseStatusException {
+
+		T value = null;
+		if( properties.getHttp().isStreaming() ) {
+			value = restTemplateService.getRestResponse(endpoint, type, response -> {
+				if( ! response.getStatusCode().is2xxSuccessful() ) {
+					logger.warn("Response returns with status code:{} - for uri:{}", response.getStatusCode(), endpoint);
+					return null;
+				}
+				return deserialize(response.getBody(), type);
+			});
+		} else {
+			ResponseEntity<String> response = restTemplateService.getRestResponse(endpoint);
+			if( response != null ) {
+				value = deserialize(response.getBody(), type);
+			}
 		}
-		return objects;
+		return value;
 	}
-	
+
 	/**
-	 * Deserialize json response to 'Attachments' object
-	 * @param response
-	 * @return a 'Attachments' object if the mapping was successful, null otherwise
+	 * Deserialize json response body stream to 'type'
+	 * @param body
+	 * @param type
+	 * @return the mapped object if the mapping was successful, null otherwise
 	 */
-	private Attachments deserializeAttachments(ResponseEntity<String> response) {
+	private <T> T deserialize(InputStream body, Class<T> type) {
 
-		Attachments attachments = null;
+		T value = null;
+		Timer.Sample sample = metrics.start();
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			attachments = mapper.readValue(response.getBody(),new TypeReference<Attachments>(){});
-			logger.debug("Object 'Attachments' mapped correctly}");
+			value = jsonReaders.reader(type).readValue(body);
+			logger.debug("Object '{}' mapped correctly", type.getSimpleName());
 		}
 		catch(Exception e) {
-			ManageMappingExceptions(e, "Attachments", response.getBody());
+			ManageMappingExceptions(e, type.getSimpleName(), "(streamed response body)");
 		}
-		return attachments;
+		finally {
+			metrics.deserialization(sample, type.getSimpleName(), value != null);
+		}
+		return value;
 	}
-	
-	
+
 	/**
-	 * Deserialize json response to 'Page' object
-	 * @param response
-	 * @return a 'Page' object if the mapping was successful, null otherwise
+	 * Deserialize json response body to 'type'
+	 * @param body
+	 * @param type
+	 * @return the mapped object if the mapping was successful, null otherwise
 	 */
-	private Page deserializePage(ResponseEntity<String> response) {
+	private <T> T deserialize(String body, Class<T> type) {
 
-		Page page = null;
+		T value = null;
+		Timer.Sample sample = metrics.start();
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			page = mapper.readValue(response.getBody(),new TypeReference<Page>(){});
-			logger.debug("Object 'Page' mapped correctly}");
+			value = jsonReaders.reader(type).readValue(body);
+			logger.debug("Object '{}' mapped correctly", type.getSimpleName());
 		}
 		catch(Exception e) {
-			ManageMappingExceptions(e, "Page", response.getBody());
+			ManageMappingExceptions(e, type.getSimpleName(), body);
 		}
-		return page;
+		finally {
+			metrics.deserialization(sample, type.getSimpleName(), value != null);
+		}
+		return value;
 	}
+
+	
+	
+	
 	
 	/**
 	 * Deserialize json response to 'SearchResults' object
@@ -419,8 +444,7 @@ public class XwikiMappingService {
 
 		SearchResults results = null;	
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			results = mapper.readValue(response.getBody(), new TypeReference<SearchResults>() {});
+			results = jsonReaders.reader(SearchResults.class).readValue(response.getBody());
 		} catch( Exception e ) {
 			ManageMappingExceptions(e, "SearchResults", response.getBody());
 		}
@@ -436,8 +460,7 @@ public class XwikiMappingService {
 
 		SearchResult result = null;
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			result = mapper.readValue(response.getBody(), new TypeReference<SearchResult>() {});
+			result = jsonReaders.reader(SearchResult.class).readValue(response.getBody());
 		} catch( Exception e ) {
 			ManageMappingExceptions(e, "SearchResult", response.getBody());
 		}
@@ -453,8 +476,7 @@ public class XwikiMappingService {
 
 		Pages pages = null;
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			pages = mapper.readValue(response.getBody(),new TypeReference<Pages>(){});
+			pages = jsonReaders.reader(Pages.class).readValue(response.getBody());
 			logger.debug("Object 'Pages' mapped correctly}");
 		}
 		catch(Exception e) {
@@ -463,26 +485,6 @@ public class XwikiMappingService {
 		return pages;
 	}
 	
-	/**
-	 * Deserialize json response to 'Properties' object
-	 * @param response
-	 * @return a 'Properties' object if the mapping was successful, null otherwise
-	 */
-	private Properties deserializeProperties(ResponseEntity<String> response) {		
-
-		Properties properties = null;
-		if( response != null ) {
-			try {
-				ObjectMapper mapper = new ObjectMapper();
-				properties = mapper.readValue(response.getBody(),new TypeReference<Properties>(){});
-				logger.debug("Object 'Map<String,String>' mapped correctly}");
-			}
-			catch(Exception e) {
-				ManageMappingExceptions(e, "Map<String,String>", response.getBody());
-			}
-		}
-		return properties;	
-	}
 
 	/**
 	 * Deserialize json response to 'Xwiki' object
@@ -493,8 +495,7 @@ public class XwikiMappingService {
 
 		Xwiki xWiki = null;
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			xWiki = mapper.readValue(response.getBody(),new TypeReference<Xwiki>(){});
+			xWiki = jsonReaders.reader(Xwiki.class).readValue(response.getBody());
 			logger.debug("Object 'Xwiki' mapped correctly}");
 		}	
 		catch(Exception e) {
@@ -512,8 +513,7 @@ public class XwikiMappingService {
 
 		Wikis wikis = null;
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			wikis = mapper.readValue(response.getBody(),new TypeReference<Wikis>(){});
+			wikis = jsonReaders.reader(Wikis.class).readValue(response.getBody());
 			logger.debug("Object 'Wikis' mapped correctly}");
 		}
 		catch(Exception e) {
@@ -531,8 +531,7 @@ public class XwikiMappingService {
 
 		Wiki wikis = null;
 		try {
-			ObjectMapper mapper = new ObjectMapper();
-			wikis = mapper.readValue(response.getBody(),new TypeReference<Wiki>(){});
+			wikis = jsonReaders.reader(Wiki.class).readValue(response.getBody());
 			logger.debug("Object 'Wiki' mapped correctly}");
 		}
 		catch(Exception e) {
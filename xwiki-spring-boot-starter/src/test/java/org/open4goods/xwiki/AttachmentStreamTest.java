@@ -0,0 +1,111 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.config.XWikiConstantsResourcesPath;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.model.AttachmentStream;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+public class AttachmentStreamTest {
+
+	private static final String ATTACHMENT_URL = "https://wiki.example.org/bin/download/Blog/Post/manual.pdf";
+
+	private MockRestServiceServer server;
+	private RestTemplateService restTemplateService;
+
+	@BeforeEach
+	void setup() {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+
+		RestTemplate restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).build();
+		restTemplateService = new RestTemplateService(restTemplate, restTemplate, properties);
+	}
+
+	@Test
+	void rangeIsPassedThrough() throws Exception {
+		byte[] content = new byte[3 * AttachmentStream.BUFFER_SIZE];
+		Arrays.fill(content, (byte) 7);
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setContentType(MediaType.APPLICATION_PDF);
+		upstream.setContentLength(content.length);
+		upstream.setETag("\"1.1\"");
+		upstream.set(HttpHeaders.CONTENT_RANGE, "bytes 100-" + (99 + content.length) + "/100000");
+		server.expect(requestTo(ATTACHMENT_URL))
+			.andExpect(header(HttpHeaders.RANGE, "bytes=100-"))
+			.andRespond(withStatus(HttpStatus.PARTIAL_CONTENT).headers(upstream).body(content));
+
+		HttpHeaders client = new HttpHeaders();
+		client.set(HttpHeaders.RANGE, "bytes=100-");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		try (AttachmentStream attachment = restTemplateService.openAttachment(ATTACHMENT_URL, client)) {
+			assertEquals(content.length, attachment.writeTo(response));
+		}
+
+		assertEquals(206, response.getStatus());
+		assertEquals("application/pdf", response.getContentType());
+		assertEquals("\"1.1\"", response.getHeader(HttpHeaders.ETAG));
+		assertEquals("bytes 100-" + (99 + content.length) + "/100000", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(content, response.getContentAsByteArray());
+		server.verify();
+	}
+
+	@Test
+	void missingAttachmentIsNotFound() {
+		server.expect(requestTo(ATTACHMENT_URL)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+		try (AttachmentStream attachment = restTemplateService.openAttachment(ATTACHMENT_URL, null)) {
+			assertEquals(404, attachment.getStatus());
+		}
+	}
+
+	@Test
+	void failedRequestIsNull() {
+		server.expect(requestTo(ATTACHMENT_URL)).andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+
+		assertNull(restTemplateService.openAttachment(ATTACHMENT_URL, null));
+	}
+
+	@Test
+	void attachmentPathIsEncodedPerSegment() {
+		XWikiConstantsResourcesPath paths = new XWikiConstantsResourcesPath("https://wiki.example.org", "rest", "xwiki");
+		server.expect(requestTo("https://wiki.example.org/bin/download/Blog/Sub%20Space/Post/a%2Fb%20%7Bx%7D%3F.pdf"))
+			.andRespond(withStatus(HttpStatus.OK).contentType(MediaType.APPLICATION_PDF).body(new byte[1]));
+
+		try (AttachmentStream attachment = restTemplateService.openAttachment(paths.getDownloadAttachmentUri(List.of("Blog", "Sub Space", "Post", "a/b {x}?.pdf")), null)) {
+			assertEquals(200, attachment.getStatus());
+		}
+		server.verify();
+	}
+
+	@Test
+	void invalidAttachmentPathIsRejected() {
+		XWikiConstantsResourcesPath paths = new XWikiConstantsResourcesPath("https://wiki.example.org", "rest", "xwiki");
+
+		assertThrows(IllegalArgumentException.class, () -> paths.getDownloadAttachmentUri(List.of("Blog", "..", "secret.pdf")));
+		assertThrows(IllegalArgumentException.class, () -> paths.getDownloadAttachmentUri(List.of("Blog", "", "file.pdf")));
+		assertThrows(IllegalArgumentException.class, () -> paths.getDownloadAttachmentUri(List.of("Post", "file.pdf")));
+	}
+}
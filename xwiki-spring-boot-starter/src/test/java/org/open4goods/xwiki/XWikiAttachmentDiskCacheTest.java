@@ -0,0 +1,143 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.open4goods.xwiki.cache.XWikiAttachmentDiskCache;
+import org.open4goods.xwiki.config.XWikiCacheProperties.AttachmentsCacheSpec;
+import org.open4goods.xwiki.model.AttachmentStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+public class XWikiAttachmentDiskCacheTest {
+
+	@TempDir
+	Path directory;
+
+	private AttachmentsCacheSpec spec;
+
+	@BeforeEach
+	void setup() {
+		spec = new AttachmentsCacheSpec();
+		spec.setDirectory(directory.toString());
+		spec.setMaximumSize(DataSize.ofKilobytes(2));
+	}
+
+	@Test
+	void storeAndServe() throws Exception {
+		XWikiAttachmentDiskCache cache = new XWikiAttachmentDiskCache(spec);
+		byte[] content = content(1000, 1);
+
+		XWikiAttachmentDiskCache.Entry entry = cache.store("xwiki:/Blog/Post/a.pdf", attachment(content, "\"1.1\""));
+
+		assertTrue(cache.isFresh(entry));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(cache.serve(entry, new MockHttpServletRequest(), response));
+		assertEquals(200, response.getStatus());
+		assertEquals("application/pdf", response.getContentType());
+		assertEquals("\"1.1\"", response.getHeader(HttpHeaders.ETAG));
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	void leastRecentlyUsedIsEvicted() throws Exception {
+		XWikiAttachmentDiskCache cache = new XWikiAttachmentDiskCache(spec);
+		cache.store("a", attachment(content(800, 1), "\"1\""));
+		cache.store("b", attachment(content(800, 2), "\"1\""));
+		cache.get("a");
+
+		cache.store("c", attachment(content(800, 3), "\"1\""));
+
+		// 'b' is the least recently used
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(1600, cache.size());
+		try (var files = Files.list(directory)) {
+			assertEquals(4, files.count());
+		}
+	}
+
+	@Test
+	void entriesSurviveRestart() throws Exception {
+		XWikiAttachmentDiskCache cache = new XWikiAttachmentDiskCache(spec);
+		byte[] content = content(500, 4);
+		cache.store("a", attachment(content, "\"2.1\""));
+		cache.close();
+
+		XWikiAttachmentDiskCache reloaded = new XWikiAttachmentDiskCache(spec);
+
+		XWikiAttachmentDiskCache.Entry entry = reloaded.get("a");
+		assertEquals("\"2.1\"", entry.getEtag());
+		// checked against xwiki before being served
+		assertFalse(reloaded.isFresh(entry));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(reloaded.serve(entry, new MockHttpServletRequest(), response));
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	void sendfileIsUsedWhenSupported() throws Exception {
+		XWikiAttachmentDiskCache cache = new XWikiAttachmentDiskCache(spec);
+		XWikiAttachmentDiskCache.Entry entry = cache.store("a", attachment(content(100, 5), "\"1\""));
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		assertTrue(cache.serve(entry, request, response));
+
+		assertEquals(entry.getFile().toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+		assertEquals(100L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+		assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	void fileHandedToSendfileOutlivesEviction() throws Exception {
+		XWikiAttachmentDiskCache cache = new XWikiAttachmentDiskCache(spec);
+		XWikiAttachmentDiskCache.Entry entry = cache.store("a", attachment(content(100, 6), "\"1\""));
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+		assertTrue(cache.serve(entry, request, new MockHttpServletResponse()));
+
+		cache.evict("a");
+
+		// still to be opened by the connector
+		assertNull(cache.get("a"));
+		assertTrue(Files.exists(entry.getFile()));
+		assertEquals(0, cache.size());
+		// not loaded again
+		assertNull(new XWikiAttachmentDiskCache(spec).get("a"));
+		// an evicted entry is not served
+		assertFalse(cache.serve(entry, new MockHttpServletRequest(), new MockHttpServletResponse()));
+	}
+
+	private AttachmentStream attachment(byte[] content, String etag) throws Exception {
+		MockClientHttpResponse upstream = new MockClientHttpResponse(content, HttpStatus.OK);
+		upstream.getHeaders().setContentType(MediaType.APPLICATION_PDF);
+		upstream.getHeaders().setContentLength(content.length);
+		upstream.getHeaders().setETag(etag);
+		return new AttachmentStream(upstream);
+	}
+
+	private byte[] content(int length, int value) {
+		byte[] content = new byte[length];
+		Arrays.fill(content, (byte) value);
+		return content;
+	}
+}
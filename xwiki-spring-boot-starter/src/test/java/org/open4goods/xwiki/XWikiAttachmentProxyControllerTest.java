@@ -0,0 +1,185 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.open4goods.xwiki.cache.XWikiAttachmentDiskCache;
+import org.open4goods.xwiki.config.XWikiCacheProperties.AttachmentsCacheSpec;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.proxy.XWikiAttachmentProxyController;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiParallelExecutor;
+import org.open4goods.xwiki.services.XwikiFacadeService;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.open4goods.xwiki.services.XwikiMappingService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestTemplate;
+
+public class XWikiAttachmentProxyControllerTest {
+
+	@TempDir
+	Path directory;
+
+	private MockRestServiceServer server;
+	private XWikiServiceProperties properties;
+	private XwikiFacadeService facadeService;
+	private MockMvc mvc;
+
+	@BeforeEach
+	void setup() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+		properties.getProxy().setAllowedPaths(List.of("/Blog/**"));
+
+		RestTemplate restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).build();
+		RestTemplateService restTemplateService = new RestTemplateService(restTemplate, restTemplate, properties);
+		XwikiMappingService mappingService = new XwikiMappingService(restTemplateService, new XwikiJsonReaders(), properties);
+		facadeService = new XwikiFacadeService(mappingService, null, null, null, null, null,
+				new XWikiParallelExecutor(Executors.newVirtualThreadPerTaskExecutor(), 4), properties);
+		mvc = MockMvcBuilders.standaloneSetup(new XWikiAttachmentProxyController(facadeService, properties.getProxy())).build();
+	}
+
+	@Test
+	void attachmentIsStreamedThenRevalidatedLocally() throws Exception {
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setETag("\"1.2\"");
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withSuccess(new byte[] { 1, 2, 3 }, MediaType.IMAGE_PNG).headers(upstream));
+
+		mvc.perform(get("/wiki-files/Blog/Post/logo.png"))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+			.andExpect(header().string(HttpHeaders.ETAG, "\"1.2\""))
+			.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, private"))
+			.andExpect(content().bytes(new byte[] { 1, 2, 3 }));
+
+		// answered from the local metadata, xwiki is requested once
+		mvc.perform(get("/wiki-files/Blog/Post/logo.png").header(HttpHeaders.IF_NONE_MATCH, "\"1.2\""))
+			.andExpect(status().isNotModified())
+			.andExpect(header().string(HttpHeaders.ETAG, "\"1.2\""));
+		server.verify();
+	}
+
+	@Test
+	void pathSegmentsAreEncodedAgain() throws Exception {
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/My%20Post/a%2Fb%20%7B1%7D.png"))
+			.andRespond(withSuccess(new byte[] { 1 }, MediaType.IMAGE_PNG));
+
+		mvc.perform(get(URI.create("/wiki-files/Blog/My%20Post/a%2Fb%20%7B1%7D.png")))
+			.andExpect(status().isOk())
+			.andExpect(content().bytes(new byte[] { 1 }));
+		server.verify();
+	}
+
+	@Test
+	void unreachableXwikiIsABadGateway() throws Exception {
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/old.png"))
+			.andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+		mvc.perform(get("/wiki-files/Blog/Post/logo.png")).andExpect(status().isBadGateway());
+		mvc.perform(get("/wiki-files/Blog/Post/old.png")).andExpect(status().isNotFound());
+		server.verify();
+	}
+
+	@Test
+	void storedCopyServedWhileXwikiIsUnreachable() throws Exception {
+		MockMvc diskMvc = diskCacheMvc();
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withSuccess(new byte[] { 1, 2, 3 }, MediaType.IMAGE_PNG).headers(etag("\"1.2\"")));
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+
+		diskMvc.perform(get("/wiki-files/Blog/Post/logo.png")).andExpect(status().isOk());
+		// revalidation fails: the stored copy is served, xwiki is not requested again
+		diskMvc.perform(get("/wiki-files/Blog/Post/logo.png"))
+			.andExpect(status().isOk())
+			.andExpect(content().bytes(new byte[] { 1, 2, 3 }));
+		server.verify();
+	}
+
+	@Test
+	void nothingStoredWhileXwikiIsUnreachable() throws Exception {
+		MockMvc diskMvc = diskCacheMvc();
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+
+		diskMvc.perform(get("/wiki-files/Blog/Post/logo.png")).andExpect(status().isBadGateway());
+		server.verify();
+		try (var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	void removedAttachmentIsEvicted() throws Exception {
+		MockMvc diskMvc = diskCacheMvc();
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withSuccess(new byte[] { 1, 2, 3 }, MediaType.IMAGE_PNG).headers(etag("\"1.2\"")));
+		server.expect(once(), requestTo("https://wiki.example.org/bin/download/Blog/Post/logo.png"))
+			.andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+		diskMvc.perform(get("/wiki-files/Blog/Post/logo.png")).andExpect(status().isOk());
+		diskMvc.perform(get("/wiki-files/Blog/Post/logo.png")).andExpect(status().isNotFound());
+		server.verify();
+		try (var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	/**
+	 * Proxy with a disk cache checking the stored attachments on every request
+	 */
+	private MockMvc diskCacheMvc() throws Exception {
+		AttachmentsCacheSpec spec = new AttachmentsCacheSpec();
+		spec.setDirectory(directory.toString());
+		spec.setRevalidateAfter(Duration.ZERO);
+		XWikiAttachmentDiskCache diskCache = new XWikiAttachmentDiskCache(spec);
+		return MockMvcBuilders.standaloneSetup(new XWikiAttachmentProxyController(facadeService, properties.getProxy(), diskCache, "xwiki")).build();
+	}
+
+	/**
+	 * Headers of a storable attachment of 3 bytes
+	 */
+	private HttpHeaders etag(String etag) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setETag(etag);
+		headers.setContentLength(3);
+		return headers;
+	}
+
+	@Test
+	void pathOutsideAllowListIsNotFound() throws Exception {
+		mvc.perform(get("/wiki-files/XWiki/Admin/secret.txt")).andExpect(status().isNotFound());
+		mvc.perform(get("/wiki-files/Blog/../XWiki/secret.txt")).andExpect(status().isNotFound());
+		mvc.perform(get(URI.create("/wiki-files/Blog/%2E%2E/XWiki/secret.txt"))).andExpect(status().isNotFound());
+		mvc.perform(get("/wiki-files/Blog//secret.txt")).andExpect(status().isNotFound());
+	}
+}
@@ -0,0 +1,208 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.config.XWikiFetchProperties.HtmlFetchMode;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiContentExtractor;
+import org.open4goods.xwiki.services.XWikiHtmlService;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class XWikiContentExtractorTest {
+
+	private static final String VIEW_URL = "https://wiki.example.org/bin/view/Blog/Post";
+
+	private static final String SKIN_HEAD = "<html><head><script>var a = '<div id=\"menu\">';</script></head><body><div id=\"mainContentArea\">"
+			+ "<div id=\"xwikicontent\" class=\"col-xs-12\">\n";
+
+	private XWikiServiceProperties properties;
+	private MockRestServiceServer server;
+
+	@Test
+	void nestedBlocksAreKept() throws Exception {
+		String content = "<h1>Title</h1><div class=\"box\"><p>é</p><!-- </div> --></div>\n<script>if (a </div> b) {}</script><p>end</p>";
+		String page = SKIN_HEAD + content + "\n</div><div id=\"footer\"><div>menu</div></div></div></body></html>";
+
+		assertEquals("\n" + content + "\n", XWikiContentExtractor.extract(stream(page), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void pageIsNotReadPastTheContent() throws Exception {
+		String page = SKIN_HEAD + "<p>content</p></div>" + "<div>footer</div>".repeat(100_000);
+		CountingStream in = new CountingStream(page.getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("\n<p>content</p>", XWikiContentExtractor.extract(in, StandardCharsets.UTF_8));
+		// at most one buffer after the content block
+		assertTrue(in.read < 32 * 1024, "read " + in.read + " bytes");
+	}
+
+	@Test
+	void gzipPageIsNotDownloadedPastTheContent() throws Exception {
+		// incompressible footer (random chunks larger than the deflate window), far more than the socket buffers
+		byte[] footerChunk = new byte[64 * 1024];
+		Random random = new Random(42);
+		for (int i = 0; i < footerChunk.length; i++) {
+			footerChunk[i] = (byte) ('a' + random.nextInt(26));
+		}
+		long footerSize = 1024L * footerChunk.length;
+		AtomicReference<String> acceptEncoding = new AtomicReference<>();
+		AtomicLong footerWritten = new AtomicLong();
+		CountDownLatch served = new CountDownLatch(1);
+
+		HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		httpServer.createContext("/", exchange -> {
+			acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+			exchange.getResponseHeaders().set("Content-Type", "text/html;charset=UTF-8");
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			try (GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody(), true)) {
+				out.write((SKIN_HEAD + "<p>content</p></div>").getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				while (footerWritten.get() < footerSize) {
+					out.write(footerChunk);
+					footerWritten.addAndGet(footerChunk.length);
+				}
+			} catch (IOException e) {
+				// connection aborted by the client
+			} finally {
+				served.countDown();
+			}
+		});
+		httpServer.start();
+
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("http://127.0.0.1:" + httpServer.getAddress().getPort());
+		properties.setUsername("user");
+		properties.setPassword("password");
+		// content compression left on, as on the pooled client of the starter
+		try (CloseableHttpClient httpClient = HttpClients.custom()
+				.setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create().build())
+				.disableCookieManagement()
+				.build()) {
+			RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+			RestTemplateService restTemplateService = new RestTemplateService(restTemplate, restTemplate, properties);
+
+			assertEquals("\n<p>content</p>", restTemplateService.getWebContent(properties.getBaseUrl() + "/bin/view/Blog/Post"));
+			assertTrue(served.await(30, TimeUnit.SECONDS));
+			assertTrue(acceptEncoding.get().contains("gzip"), "Accept-Encoding: " + acceptEncoding.get());
+			assertTrue(footerWritten.get() < footerSize / 2, "footer written " + footerWritten.get() + " of " + footerSize + " bytes");
+		} finally {
+			httpServer.stop(0);
+		}
+	}
+
+	@Test
+	void pageWithoutContent() throws Exception {
+		assertNull(XWikiContentExtractor.extract(stream("<html><body><div id=\"login\"></div></body></html>"), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void singleParagraphIsUnwrapped() {
+		XWikiHtmlService htmlService = htmlService();
+		server.expect(requestTo(VIEW_URL))
+			.andRespond(withSuccess(SKIN_HEAD + "<p>Hello <strong>world</strong></p>\n</div></div></body></html>", MediaType.TEXT_HTML));
+
+		assertEquals("Hello <strong>world</strong>", htmlService.getWebPage("Blog/Post", false));
+		server.verify();
+	}
+
+	@Test
+	void plainModeRequestsContentOnly() {
+		XWikiHtmlService htmlService = htmlService();
+		server.expect(requestTo(VIEW_URL + "?language=fr&xpage=plain"))
+			.andRespond(withSuccess("<h1>Titre</h1><p>Bonjour</p>", MediaType.TEXT_HTML));
+
+		assertEquals("<h1>Titre</h1><p>Bonjour</p>", htmlService.fetchHtml("Blog/Post", Locale.FRENCH, HtmlFetchMode.PLAIN));
+		server.verify();
+	}
+
+	@Test
+	void plainModeFallsBackToPage() {
+		XWikiHtmlService htmlService = htmlService();
+		// not supported: the full skin is rendered
+		server.expect(requestTo(VIEW_URL + "?xpage=plain"))
+			.andRespond(withSuccess(SKIN_HEAD + "<h1>Title</h1>\n</div></div></body></html>", MediaType.TEXT_HTML));
+		server.expect(requestTo(VIEW_URL))
+			.andRespond(withSuccess(SKIN_HEAD + "<h1>Title</h1>\n</div></div></body></html>", MediaType.TEXT_HTML));
+
+		assertEquals("<h1>Title</h1>", htmlService.getWebPage("Blog/Post", false, HtmlFetchMode.PLAIN));
+		// not requested anymore
+		assertEquals("<h1>Title</h1>", htmlService.getWebPage("Blog/Post", false, HtmlFetchMode.PLAIN));
+		server.verify();
+	}
+
+	@Test
+	void plainModeIsRetriedAfterDelay() {
+		XWikiHtmlService htmlService = htmlService();
+		properties.getFetch().setPlainRetryDelay(Duration.ZERO);
+		server.expect(requestTo(VIEW_URL + "?xpage=plain"))
+			.andRespond(withSuccess(SKIN_HEAD + "<h1>Title</h1>\n</div></div></body></html>", MediaType.TEXT_HTML));
+		// fixed on the server side
+		server.expect(requestTo(VIEW_URL + "?xpage=plain"))
+			.andRespond(withSuccess("<h1>Title</h1>", MediaType.TEXT_HTML));
+
+		assertEquals("<h1>Title</h1>", htmlService.getWebPage("Blog/Post", false, HtmlFetchMode.PLAIN));
+		assertEquals("<h1>Title</h1>", htmlService.getWebPage("Blog/Post", false, HtmlFetchMode.PLAIN));
+		server.verify();
+	}
+
+	private XWikiHtmlService htmlService() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+		RestTemplate restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).build();
+		return new XWikiHtmlService(null, new RestTemplateService(restTemplate, restTemplate, properties), properties);
+	}
+
+	private InputStream stream(String page) {
+		return new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class CountingStream extends ByteArrayInputStream {
+
+		private long read;
+
+		CountingStream(byte[] bytes) {
+			super(bytes);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			int n = super.read(b, off, len);
+			read += Math.max(0, n);
+			return n;
+		}
+	}
+}
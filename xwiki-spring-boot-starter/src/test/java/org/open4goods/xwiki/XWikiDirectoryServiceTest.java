@@ -0,0 +1,94 @@
+package org.open4goods.xwiki;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.ExpectedCount.never;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiDirectoryService;
+import org.open4goods.xwiki.services.XWikiParallelExecutor;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.open4goods.xwiki.services.XwikiMappingService;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+public class XWikiDirectoryServiceTest {
+
+	private static final String GROUPS = "{\"searchResults\":["
+			+ "{\"pageName\":\"Editors\",\"version\":\"%s\"},"
+			+ "{\"pageName\":\"Editors\",\"version\":\"%s\"},"
+			+ "{\"pageName\":\"Admins\",\"version\":\"1.1\"},"
+			+ "{\"pageName\":\"XWikiGroupTemplate\",\"version\":\"1.1\"}]}";
+	private static final String USERS = "{\"searchResults\":[{\"pageName\":\"john\"},{\"pageName\":\"jane\"}]}";
+
+	private XWikiServiceProperties properties;
+	private RestTemplate restTemplate;
+	private XWikiDirectoryService directory;
+
+	@BeforeEach
+	void setup() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setHttpsOnly(true);
+		restTemplate = new RestTemplate();
+		RestTemplateService restTemplateService = new RestTemplateService(restTemplate, restTemplate, properties);
+		XwikiMappingService mappingService = new XwikiMappingService(restTemplateService, new XwikiJsonReaders(), properties);
+		directory = new XWikiDirectoryService(mappingService, new XWikiParallelExecutor(Executors.newVirtualThreadPerTaskExecutor(), 4), properties);
+	}
+
+	private static String members(String... members) {
+		StringBuilder json = new StringBuilder("{\"objectSummaries\":[");
+		for (int i = 0; i < members.length; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"className\":\"XWiki.XWikiGroups\",\"headline\":\"").append(members[i]).append("\"}");
+		}
+		return json.append("]}").toString();
+	}
+
+	@Test
+	void bulkLoadThenIncrementalSync() {
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+		server.expect(requestTo(containsString("object:XWiki.XWikiGroups"))).andRespond(withSuccess(GROUPS.formatted("1.1", "1.1"), MediaType.APPLICATION_JSON));
+		server.expect(requestTo(containsString("/pages/Editors/objects"))).andRespond(withSuccess(members("XWiki.john", "xwiki:XWiki.jane", "", "XWiki.bob"), MediaType.APPLICATION_JSON));
+		server.expect(requestTo(containsString("/pages/Admins/objects"))).andRespond(withSuccess(members("XWiki.jane"), MediaType.APPLICATION_JSON));
+		server.expect(requestTo(containsString("/rest/wikis/query?q=object:XWiki.XWikiUsers"))).andRespond(withSuccess(USERS, MediaType.APPLICATION_JSON));
+
+		assertFalse(directory.isLoaded());
+		directory.refresh();
+		server.verify();
+
+		assertTrue(directory.isLoaded());
+		assertEquals(List.of("Editors", "Admins"), List.copyOf(directory.getGroups()));
+		// objects order and format of XWikiReadService.getGroupUsers
+		assertEquals(List.of("john", "xwiki:jane", "bob"), directory.getGroupUsers("Editors"));
+		assertEquals(Set.of("john", "jane"), directory.getUsers());
+		assertEquals(Set.of("Editors", "Admins"), directory.getUserGroups("jane"));
+		assertTrue(directory.isMember("john", "Editors"));
+		assertFalse(directory.isMember("john", "Admins"));
+
+		// only the modified group is fetched again
+		server.reset();
+		server.expect(requestTo(containsString("object:XWiki.XWikiGroups"))).andRespond(withSuccess(GROUPS.formatted("1.2", "1.2"), MediaType.APPLICATION_JSON));
+		server.expect(requestTo(containsString("/pages/Editors/objects"))).andRespond(withSuccess(members("XWiki.jane"), MediaType.APPLICATION_JSON));
+		server.expect(never(), requestTo(containsString("/pages/Admins/objects")));
+		server.expect(requestTo(containsString("object:XWiki.XWikiUsers"))).andRespond(withSuccess(USERS, MediaType.APPLICATION_JSON));
+
+		directory.refresh();
+		server.verify();
+
+		assertEquals(Set.of(), directory.getUserGroups("john"));
+		assertEquals(List.of("jane"), directory.getGroupUsers("Editors"));
+		assertEquals(List.of("jane"), directory.getGroupUsers("Admins"));
+	}
+}
@@ -0,0 +1,112 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.authentication.XWikiGroupResolver;
+import org.open4goods.xwiki.config.XWikiAuthenticationProperties.GroupResolverType;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+public class XWikiGroupResolverTest {
+
+	private static final String GROUPS_PAGE = "https://wiki.example.org/bin/view/testGroups/currentUserGroups";
+
+	private XWikiServiceProperties properties;
+	private RestTemplate restTemplate;
+	private MockRestServiceServer server;
+
+	@BeforeEach
+	void setup() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setHttpsOnly(true);
+		restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).build();
+	}
+
+	private XWikiGroupResolver resolver(GroupResolverType type) {
+		properties.getAuthentication().setGroupResolver(type);
+		return XWikiGroupResolver.create(properties, restTemplate, new XwikiJsonReaders());
+	}
+
+	@Test
+	void plainContent() throws Exception {
+		server.expect(requestTo(GROUPS_PAGE + "?xpage=plain&media=json"))
+			.andExpect(header("Authorization", "Basic am9objpzZWNyZXQ="))
+			.andRespond(withSuccess("<p>[xwiki:XWiki.XWikiAllGroup, xwiki:XWiki.Editors]</p>\n", MediaType.TEXT_HTML));
+
+		assertEquals(List.of("xwiki:XWiki.XWikiAllGroup", "xwiki:XWiki.Editors"), resolver(GroupResolverType.PLAIN).resolveGroups("john", "secret"));
+		server.verify();
+	}
+
+	@Test
+	void plainIgnoredByServer() throws Exception {
+		server.expect(requestTo(GROUPS_PAGE + "?xpage=plain&media=json"))
+			.andRespond(withSuccess("<html><body><div id=\"xwikicontent\"><p>[xwiki:XWiki.Editors]</p></div><div>footer</div></body></html>", MediaType.TEXT_HTML));
+
+		assertEquals(List.of("xwiki:XWiki.Editors"), resolver(GroupResolverType.PLAIN).resolveGroups("john", "secret"));
+	}
+
+	@Test
+	void restQuery() throws Exception {
+		URI query = UriComponentsBuilder.fromUriString("https://wiki.example.org/rest/wikis/xwiki/query")
+				.queryParam("type", "xwql")
+				.queryParam("q", "{q}")
+				.queryParam("media", "json")
+				.encode().buildAndExpand("where doc.object(XWiki.XWikiGroups).member in ('XWiki.o''hara', 'xwiki:XWiki.o''hara')").toUri();
+		server.expect(requestTo(query))
+			.andRespond(withSuccess("{\"searchResults\":[{\"wiki\":\"xwiki\",\"pageFullName\":\"XWiki.Editors\"},{\"wiki\":\"xwiki\",\"pageFullName\":\"XWiki.Editors\"}]}", MediaType.APPLICATION_JSON));
+
+		assertEquals(List.of("xwiki:XWiki.Editors"), resolver(GroupResolverType.REST).resolveGroups("o'hara", "secret"));
+		server.verify();
+	}
+
+	@Test
+	void restQueryUserNameIsALiteral() throws Exception {
+		// quote, encoded quote, query separators, template braces and fragment kept inside the xwql literal
+		String userName = "x'%27) or ('1%27=%271&number=1+a b#{c}";
+		String member = "XWiki.x''%27) or (''1%27=%271&number=1+a b#{c}";
+		server.expect(request -> {
+				Map<String, String> params = new LinkedHashMap<>();
+				for (String param : request.getURI().getRawQuery().split("&")) {
+					String[] pair = param.split("=", 2);
+					params.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8), URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+				}
+				assertEquals(Map.of("type", "xwql",
+						"q", "where doc.object(XWiki.XWikiGroups).member in ('" + member + "', 'xwiki:" + member + "')",
+						"media", "json"), params);
+				assertNull(request.getURI().getRawFragment());
+			})
+			.andRespond(withSuccess("{\"searchResults\":[]}", MediaType.APPLICATION_JSON));
+
+		assertEquals(List.of(), resolver(GroupResolverType.REST).resolveGroups(userName, "secret"));
+		server.verify();
+	}
+
+	@Test
+	void wrongCredentials() {
+		server.expect(requestTo(GROUPS_PAGE + "?xpage=plain&media=json")).andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+
+		assertThrows(Exception.class, () -> resolver(GroupResolverType.PLAIN).resolveGroups("john", "wrong"));
+	}
+}
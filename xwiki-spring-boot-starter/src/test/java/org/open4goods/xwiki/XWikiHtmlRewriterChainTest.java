@@ -0,0 +1,91 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.html.XWikiHtmlRewriter;
+import org.open4goods.xwiki.html.XWikiHtmlRewriterChain;
+import org.open4goods.xwiki.html.XWikiHtmlTag;
+import org.springframework.core.annotation.Order;
+
+public class XWikiHtmlRewriterChainTest {
+
+	private XWikiServiceProperties properties;
+
+	@BeforeEach
+	void setup() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org/xwiki");
+		properties.setHttpsOnly(true);
+		properties.getHtml().setViewRoute("/wiki");
+	}
+
+	@Test
+	void builtInStages() {
+		properties.getHtml().setLazyImages(true);
+		XWikiHtmlRewriterChain chain = new XWikiHtmlRewriterChain(XWikiHtmlRewriterChain.builtInStages(properties));
+		String html = "<p>See <a href=\"/xwiki/bin/view/Blog/Post?language=fr#top\" class='link'>the post</a>"
+				+ " and <a href=\"http://wiki.example.org/xwiki/bin/download/Blog/Post/manual.pdf\">the manual</a></p>"
+				+ "<img src=\"/xwiki/bin/download/Blog/Post/logo.png?width=100&amp;height=50\" alt=\"a &quot;logo&quot;\">"
+				+ "<img src=\"https://cdn.example.org/a.png\" loading=\"eager\"/>"
+				+ "<img src=\"https://cdn.example.org/b.png\" fetchpriority=\"high\">"
+				+ "<img src=\"https://cdn.example.org/c.png\">"
+				+ "<a href=\"http://other.example.org/\">other</a>";
+
+		assertEquals("<p>See <a href=\"/wiki/Blog/Post?language=fr#top\" class=\"link\">the post</a>"
+				+ " and <a href=\"/wiki-files/Blog/Post/manual.pdf\">the manual</a></p>"
+				+ "<img src=\"/wiki-files/Blog/Post/logo.png?width=100&amp;height=50\" alt=\"a &quot;logo&quot;\">"
+				+ "<img src=\"https://cdn.example.org/a.png\" loading=\"eager\"/>"
+				+ "<img src=\"https://cdn.example.org/b.png\" fetchpriority=\"high\">"
+				+ "<img src=\"https://cdn.example.org/c.png\" loading=\"lazy\" decoding=\"async\">"
+				+ "<a href=\"http://other.example.org/\">other</a>", chain.rewrite(html));
+	}
+
+	@Test
+	void scriptsAndCommentsAreCopied() {
+		XWikiHtmlRewriterChain chain = new XWikiHtmlRewriterChain(XWikiHtmlRewriterChain.builtInStages(properties));
+		String html = "<!-- <img src=\"/xwiki/bin/download/a.png\"> --><script>var s = '<img src=\"x.png\">';</script><br>a < b";
+
+		assertEquals(html, chain.rewrite(html));
+	}
+
+	@Test
+	void customStagesAreOrdered() {
+		List<XWikiHtmlRewriter> stages = new ArrayList<>(XWikiHtmlRewriterChain.builtInStages(properties));
+		stages.add(new ExternalLinks());
+		stages.add(new FirstStage());
+		XWikiHtmlRewriterChain chain = new XWikiHtmlRewriterChain(stages);
+
+		assertSame(FirstStage.class, chain.getStages().get(0).getClass());
+		assertSame(ExternalLinks.class, chain.getStages().get(chain.getStages().size() - 1).getClass());
+		assertEquals("<a href=\"https://example.com\" target=\"_blank\" rel=\"noopener\">x</a>",
+				chain.rewrite("<a href=\"https://example.com\">x</a>"));
+	}
+
+	// after the built-in stages
+	static class ExternalLinks implements XWikiHtmlRewriter {
+		@Override
+		public void rewrite(XWikiHtmlTag tag) {
+			String href = tag.getAttribute("href");
+			if (tag.is("a") && href != null && href.startsWith("https://")) {
+				tag.setAttribute("rel", "noopener");
+			}
+		}
+	}
+
+	@Order(0)
+	static class FirstStage implements XWikiHtmlRewriter {
+		@Override
+		public void rewrite(XWikiHtmlTag tag) {
+			if (tag.is("a")) {
+				tag.setAttribute("target", "_blank");
+			}
+		}
+	}
+}
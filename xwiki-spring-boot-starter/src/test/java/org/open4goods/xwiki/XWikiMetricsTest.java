@@ -0,0 +1,113 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.open4goods.xwiki.cache.XWikiRevalidationCache;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiMetrics;
+import org.open4goods.xwiki.services.XWikiRequestCoalescer;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.open4goods.xwiki.services.XwikiMappingService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class XWikiMetricsTest {
+
+	private static final String REST = "https://wiki.example.org/rest/wikis/xwiki/spaces/Blog";
+
+	@ParameterizedTest
+	@CsvSource({
+		REST + "/pages/Post?media=json, page",
+		REST + "/pages, pages",
+		REST + "/pages/Post/objects, objects",
+		REST + "/pages/Post/objects/XWiki.XWikiUsers/0/properties, properties",
+		REST + "/pages/Post/attachments/logo.png, attachments",
+		"https://wiki.example.org/rest/wikis/query?q=object:XWiki.XWikiGroups, search",
+		"https://wiki.example.org/bin/view/Blog/Post?xpage=plain, view",
+		"https://wiki.example.org/bin/download/Blog/Post/logo.png, download",
+		"https://wiki.example.org/bin/loginsubmit/XWiki/XWikiLogin, login",
+		"https://wiki.example.org/rest/wikis, other"
+	})
+	void resourceTemplate(String url, String resource) {
+		assertEquals(resource, XWikiMetrics.resource(url));
+	}
+
+	@Test
+	void requestsAndDeserializationAreMeasured() {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setHttpsOnly(true);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		XWikiMetrics metrics = new XWikiMetrics(registry);
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		RestTemplateService restTemplateService = new RestTemplateService(restTemplate, restTemplate,
+				new XWikiRequestCoalescer(100, registry), new XWikiRevalidationCache(properties.getCache().getRevalidation(), registry), null, metrics, properties);
+		XwikiMappingService mappingService = new XwikiMappingService(restTemplateService, new XwikiJsonReaders(), metrics, properties);
+
+		server.expect(requestTo(REST + "/pages/Post?media=json")).andRespond(withSuccess("{\"name\":\"Post\"}", MediaType.APPLICATION_JSON));
+		server.expect(requestTo(REST + "/pages/Missing?media=json")).andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+		mappingService.mapPage(REST + "/pages/Post");
+		try {
+			mappingService.mapPage(REST + "/pages/Missing");
+		} catch (ResponseStatusException e) {
+			// propagated
+		}
+
+		assertEquals(1, registry.get(XWikiMetrics.REQUESTS).tags("resource", "page", "outcome", "SUCCESS").timer().count());
+		assertEquals(1, registry.get(XWikiMetrics.REQUESTS).tags("resource", "page", "outcome", "CLIENT_ERROR").timer().count());
+		assertEquals(1, registry.get(XWikiMetrics.DESERIALIZATION).tags("type", "Page", "outcome", "SUCCESS").timer().count());
+	}
+
+	@Test
+	void stringBodySizeIsInBytes() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		XWikiMetrics metrics = new XWikiMetrics(registry);
+
+		metrics.request(metrics.start(), "view", ResponseEntity.ok().contentType(MediaType.TEXT_HTML).body("h\u00e9llo \ud83d\ude00"));
+		metrics.request(metrics.start(), "page", ResponseEntity.ok().contentType(MediaType.parseMediaType("text/plain;charset=ISO-8859-1")).body("h\u00e9llo"));
+
+		// 'é' is 2 bytes in UTF-8, the emoji 4
+		assertEquals(11, registry.get(XWikiMetrics.RESPONSE_SIZE).tags("resource", "view").summary().totalAmount());
+		assertEquals(5, registry.get(XWikiMetrics.RESPONSE_SIZE).tags("resource", "page").summary().totalAmount());
+	}
+
+	@Test
+	void contentExtractionIsMeasured() {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setHttpsOnly(true);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		XWikiMetrics metrics = new XWikiMetrics(registry);
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+		RestTemplateService restTemplateService = new RestTemplateService(restTemplate, restTemplate,
+				new XWikiRequestCoalescer(100, registry), new XWikiRevalidationCache(properties.getCache().getRevalidation(), registry), null, metrics, properties);
+
+		server.expect(requestTo("https://wiki.example.org/bin/view/Blog/Post")).andRespond(withSuccess("<html><div id=\"xwikicontent\"><p>post</p></div></html>", MediaType.TEXT_HTML));
+		server.expect(requestTo("https://wiki.example.org/bin/view/Blog/Empty")).andRespond(withSuccess("<html><p>no content block</p></html>", MediaType.TEXT_HTML));
+
+		assertEquals("<p>post</p>", restTemplateService.getWebContent("https://wiki.example.org/bin/view/Blog/Post"));
+		assertNull(restTemplateService.getWebContent("https://wiki.example.org/bin/view/Blog/Empty"));
+
+		assertEquals(1, registry.get(XWikiMetrics.REQUESTS).tags("resource", "view", "outcome", "SUCCESS").timer().count());
+		assertEquals(1, registry.get(XWikiMetrics.REQUESTS).tags("resource", "view", "outcome", XWikiMetrics.MISS).timer().count());
+		assertEquals(1, registry.get(XWikiMetrics.HTML_EXTRACTION).tags("source", "content", "outcome", "SUCCESS").timer().count());
+		assertEquals(1, registry.get(XWikiMetrics.HTML_EXTRACTION).tags("source", "content", "outcome", XWikiMetrics.MISS).timer().count());
+	}
+}
@@ -0,0 +1,157 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.config.XWikiFetchProperties.PageFetchMode;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiParallelExecutor;
+import org.open4goods.xwiki.services.XWikiReadService;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.open4goods.xwiki.services.XwikiMappingService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import org.xwiki.rest.model.jaxb.Attachment;
+import org.xwiki.rest.model.jaxb.Attachments;
+import org.xwiki.rest.model.jaxb.Page;
+
+public class XWikiReadServiceTest {
+
+	private static final String SPACE_ENDPOINT = "https://wiki.example.org/rest/wikis/xwiki/spaces/Blog/pages/";
+
+	private XWikiServiceProperties properties;
+	private MockRestServiceServer server;
+	private RestTemplateService restTemplateService;
+	private XWikiReadService readService;
+
+	@BeforeEach
+	void setup() {
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+
+		RestTemplate restTemplate = new RestTemplate();
+		server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+		restTemplateService = new RestTemplateService(restTemplate, restTemplate, properties);
+		XwikiMappingService mappingService = new XwikiMappingService(restTemplateService, new XwikiJsonReaders(), properties);
+		readService = new XWikiReadService(mappingService, new XWikiParallelExecutor(Executors.newVirtualThreadPerTaskExecutor(), 4), properties);
+	}
+
+	@Test
+	void pagesListSingleRequestPerPage() {
+		properties.getFetch().setPageMode(PageFetchMode.SINGLE_REQUEST);
+		int count = 5;
+		expectPages(count);
+		for (int i = 0; i < count; i++) {
+			server.expect(once(), requestTo(SPACE_ENDPOINT + "Post" + i + "?objects=true&attachments=true&class=true&media=json"))
+				.andRespond(withSuccess(pageJson(i, true), MediaType.APPLICATION_JSON));
+		}
+
+		List<Page> pages = readService.getPagesList("Blog");
+
+		// 1 request for the summaries, then 1 request per page, in the summaries order
+		assertEquals(count, pages.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals("Post" + i, pages.get(i).getName());
+		}
+		server.verify();
+	}
+
+	@Test
+	void pagesListPerField() {
+		properties.getFetch().setPageMode(PageFetchMode.PER_FIELD);
+		expectPages(1);
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post0?media=json"))
+			.andRespond(withSuccess(pageJson(0, false), MediaType.APPLICATION_JSON));
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post0/attachments?media=json"))
+			.andRespond(withSuccess("{\"attachments\":[]}", MediaType.APPLICATION_JSON));
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post0/objects?media=json"))
+			.andRespond(withSuccess("{\"objectSummaries\":[]}", MediaType.APPLICATION_JSON));
+
+		List<Page> pages = readService.getPagesList("Blog");
+
+		assertEquals(1, pages.size());
+		server.verify();
+	}
+
+	@Test
+	void pagesListSkipsFailingPage() {
+		expectPages(3);
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post0?objects=true&attachments=true&class=true&media=json"))
+			.andRespond(withSuccess(pageJson(0, true), MediaType.APPLICATION_JSON));
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post1?objects=true&attachments=true&class=true&media=json"))
+			.andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "Post2?objects=true&attachments=true&class=true&media=json"))
+			.andRespond(withSuccess(pageJson(2, true), MediaType.APPLICATION_JSON));
+
+		List<Page> pages = readService.getPagesList("Blog");
+
+		assertEquals(List.of("Post0", "Post2"), pages.stream().map(Page::getName).toList());
+		server.verify();
+	}
+
+	@Test
+	void sharedMappedPageIsNotModified() {
+		properties.getFetch().setPageMode(PageFetchMode.SINGLE_REQUEST);
+		Attachment attachment = new Attachment();
+		attachment.setName("logo.png");
+		attachment.setXwikiAbsoluteUrl("http://wiki.example.org/bin/download/Blog/Post0/logo.png");
+		Attachments attachments = new Attachments();
+		attachments.getAttachments().add(attachment);
+		Page shared = new Page();
+		shared.setName("Post0");
+		shared.setAttachments(attachments);
+		// same instance for every request, as handed by the coalescer or the revalidation cache
+		XwikiMappingService sharing = new XwikiMappingService(restTemplateService, new XwikiJsonReaders(), properties) {
+			@Override
+			public Page mapPage(String endpoint) {
+				return shared;
+			}
+		};
+		readService = new XWikiReadService(sharing, new XWikiParallelExecutor(Executors.newVirtualThreadPerTaskExecutor(), 4), properties);
+		expectPages(1);
+
+		Page page = readService.getPagesList("Blog").get(0);
+
+		assertEquals("https://wiki.example.org/bin/download/Blog/Post0/logo.png", page.getAttachments().getAttachments().get(0).getXwikiAbsoluteUrl());
+		assertEquals("Post0", page.getName());
+		assertNotSame(shared, page);
+		assertSame(attachments, shared.getAttachments());
+		assertEquals("http://wiki.example.org/bin/download/Blog/Post0/logo.png", attachment.getXwikiAbsoluteUrl());
+	}
+
+	private void expectPages(int count) {
+		StringBuilder summaries = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				summaries.append(',');
+			}
+			summaries.append("{\"name\":\"Post").append(i).append("\",\"links\":[{\"rel\":\"http://www.xwiki.org/rel/page\",\"href\":\"")
+				.append(SPACE_ENDPOINT).append("Post").append(i).append("\"}]}");
+		}
+		server.expect(once(), requestTo(SPACE_ENDPOINT + "?media=json"))
+			.andRespond(withSuccess("{\"pageSummaries\":[" + summaries + "]}", MediaType.APPLICATION_JSON));
+	}
+
+	private String pageJson(int i, boolean embeddedFields) {
+		String links = "\"links\":[{\"rel\":\"http://www.xwiki.org/rel/attachments\",\"href\":\"" + SPACE_ENDPOINT + "Post" + i + "/attachments\"},"
+				+ "{\"rel\":\"http://www.xwiki.org/rel/objects\",\"href\":\"" + SPACE_ENDPOINT + "Post" + i + "/objects\"}]";
+		String fields = embeddedFields ? ",\"attachments\":{\"attachments\":[]},\"objects\":{\"objectSummaries\":[]}" : "";
+		return "{\"name\":\"Post" + i + "\"," + links + fields + "}";
+	}
+}
@@ -0,0 +1,75 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.cache.XWikiCacheKey;
+import org.open4goods.xwiki.cache.XWikiRefreshAheadCache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class XWikiRefreshAheadCacheTest {
+
+	private final AtomicInteger renders = new AtomicInteger();
+
+	public String render(String path) {
+		return path + "#" + renders.incrementAndGet();
+	}
+
+	@Test
+	void staleEntryIsServedWhileRefreshed() throws Exception {
+		AtomicLong nanos = new AtomicLong();
+		List<Runnable> background = new ArrayList<>();
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		Caffeine<Object, Object> builder = Caffeine.newBuilder()
+				.expireAfterWrite(Duration.ofHours(1))
+				.refreshAfterWrite(Duration.ofMinutes(5))
+				.ticker(nanos::get)
+				.executor(background::add);
+		XWikiRefreshAheadCache cache = new XWikiRefreshAheadCache("html", builder, Duration.ofMinutes(5), registry);
+		XWikiCacheKey key = new XWikiCacheKey(this, getClass().getMethod("render", String.class), "Blog/Post");
+
+		assertEquals("Blog/Post#1", cache.get(key, () -> render("Blog/Post")));
+
+		// soft ttl reached: the stale value is served, and a refresh is triggered
+		nanos.addAndGet(Duration.ofMinutes(6).toNanos());
+		assertEquals("Blog/Post#1", cache.get(key, () -> render("Blog/Post")));
+		while (!background.isEmpty()) {
+			background.remove(0).run();
+		}
+		assertEquals("Blog/Post#2", cache.get(key).get());
+
+		assertEquals(1, registry.counter("xwiki.cache.stale.served", "cache", "html").count());
+		assertEquals(1, registry.counter("xwiki.cache.refreshes", "cache", "html").count());
+	}
+
+	@Test
+	void staleEntriesAreCountedWithoutHardTtl() throws Exception {
+		AtomicLong nanos = new AtomicLong();
+		List<Runnable> background = new ArrayList<>();
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		// no expire after write (xwiki.cache.html.ttl unset)
+		Caffeine<Object, Object> builder = Caffeine.newBuilder()
+				.refreshAfterWrite(Duration.ofMinutes(5))
+				.ticker(nanos::get)
+				.executor(background::add);
+		XWikiRefreshAheadCache cache = new XWikiRefreshAheadCache("html", builder, Duration.ofMinutes(5), registry);
+		XWikiCacheKey key = new XWikiCacheKey(this, getClass().getMethod("render", String.class), "Blog/Post");
+
+		cache.get(key, () -> render("Blog/Post"));
+		cache.get(key, () -> render("Blog/Post"));
+		assertEquals(0, registry.counter("xwiki.cache.stale.served", "cache", "html").count());
+
+		nanos.addAndGet(Duration.ofMinutes(6).toNanos());
+		assertEquals("Blog/Post#1", cache.get(key, () -> render("Blog/Post")));
+		assertEquals(1, registry.counter("xwiki.cache.stale.served", "cache", "html").count());
+	}
+}
@@ -0,0 +1,42 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.services.XWikiRenderingService;
+
+public class XWikiRenderingServiceTest {
+
+	private final AtomicInteger conversions = new AtomicInteger();
+
+	private final XWikiRenderingService renderingService = new XWikiRenderingService() {
+		@Override
+		protected String convert(String content, String syntaxId) {
+			conversions.incrementAndGet();
+			return content.startsWith("broken") ? null : "<p>" + syntaxId + ":" + content + "</p>";
+		}
+	};
+
+	@Test
+	void sameContentIsRenderedOnce() {
+		// e.g. two versions or translations of a page with the same content
+		assertEquals("<p>xwiki/2.1:**bold**</p>", renderingService.render("**bold**", "xwiki/2.1"));
+		assertEquals("<p>xwiki/2.1:**bold**</p>", renderingService.render("**bold**", null));
+		assertEquals(1, conversions.get());
+
+		// another syntax, another content
+		renderingService.render("**bold**", "markdown/1.2");
+		renderingService.render("//italic//", "xwiki/2.1");
+		assertEquals(3, conversions.get());
+	}
+
+	@Test
+	void failuresAreNotCached() {
+		assertNull(renderingService.render("broken {{macro", "xwiki/2.1"));
+		assertNull(renderingService.render("broken {{macro", "xwiki/2.1"));
+		assertEquals(2, conversions.get());
+	}
+}
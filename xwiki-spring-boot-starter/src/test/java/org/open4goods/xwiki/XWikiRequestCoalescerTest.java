@@ -0,0 +1,114 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.services.XWikiRequestCoalescer;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class XWikiRequestCoalescerTest {
+
+	private static final XWikiRequestCoalescer.Key KEY = new XWikiRequestCoalescer.Key("https://wiki.example.org/rest/wikis/xwiki/spaces/Blog/pages/Post?media=json", "user", String.class);
+
+	@Test
+	void concurrentRequestsShareOneCall() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		XWikiRequestCoalescer coalescer = new XWikiRequestCoalescer(100, registry);
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		int waiters = 10;
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> first = executor.submit(() -> coalescer.execute(KEY, () -> {
+				calls.incrementAndGet();
+				await(release);
+				return new String("page");
+			}));
+			while (coalescer.inFlight() == 0) {
+				Thread.onSpinWait();
+			}
+			List<Future<String>> others = new ArrayList<>();
+			for (int i = 0; i < waiters; i++) {
+				others.add(executor.submit(() -> coalescer.execute(KEY, () -> {
+					calls.incrementAndGet();
+					return "other";
+				})));
+			}
+			while (registry.counter("xwiki.http.coalesced").count() < waiters) {
+				Thread.onSpinWait();
+			}
+			release.countDown();
+
+			String result = first.get(5, TimeUnit.SECONDS);
+			for (Future<String> other : others) {
+				assertSame(result, other.get(5, TimeUnit.SECONDS));
+			}
+		}
+		assertEquals(1, calls.get());
+		assertEquals(0, coalescer.inFlight());
+	}
+
+	@Test
+	void failureIsHandedToWaitersThenForgotten() {
+		XWikiRequestCoalescer coalescer = new XWikiRequestCoalescer(100, new SimpleMeterRegistry());
+
+		assertThrows(ResponseStatusException.class, () -> coalescer.execute(KEY, () -> {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+		}));
+		// the failed call is not kept in flight
+		assertEquals("page", coalescer.execute(KEY, () -> "page"));
+	}
+
+	@Test
+	void errorIsHandedToWaitersThenForgotten() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		XWikiRequestCoalescer coalescer = new XWikiRequestCoalescer(100, registry);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<String> first = executor.submit(() -> coalescer.execute(KEY, () -> {
+				await(release);
+				throw new StackOverflowError();
+			}));
+			while (coalescer.inFlight() == 0) {
+				Thread.onSpinWait();
+			}
+			Future<String> waiter = executor.submit(() -> coalescer.execute(KEY, () -> "other"));
+			while (registry.counter("xwiki.http.coalesced").count() < 1) {
+				Thread.onSpinWait();
+			}
+			release.countDown();
+
+			ExecutionException firstError = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+			assertInstanceOf(StackOverflowError.class, firstError.getCause());
+			ExecutionException waiterError = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+			assertInstanceOf(StackOverflowError.class, waiterError.getCause());
+		}
+		assertEquals(0, coalescer.inFlight());
+		assertEquals("page", coalescer.execute(KEY, () -> "page"));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
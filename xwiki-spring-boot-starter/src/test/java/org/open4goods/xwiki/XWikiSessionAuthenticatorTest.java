@@ -0,0 +1,166 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.headerDoesNotExist;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.authentication.XWikiSessionAuthenticator;
+import org.open4goods.xwiki.cache.XWikiRevalidationCache;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.RestTemplateService;
+import org.open4goods.xwiki.services.XWikiRequestCoalescer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class XWikiSessionAuthenticatorTest {
+
+	private static final String LOGIN = "https://wiki.example.org/bin/loginsubmit/XWiki/XWikiLogin";
+	private static final String PAGE = "https://wiki.example.org/bin/view/Main/";
+	private static final String BASIC = "Basic dXNlcjpwYXNzd29yZA==";
+
+	private MockRestServiceServer xwiki;
+	private MockRestServiceServer login;
+	private RestTemplateService restTemplateService;
+
+	@BeforeEach
+	void setup() {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+		properties.getHttp().setCoalescing(false);
+
+		RestTemplate restTemplate = new RestTemplate();
+		RestTemplate loginTemplate = new RestTemplate();
+		xwiki = MockRestServiceServer.bindTo(restTemplate).build();
+		login = MockRestServiceServer.bindTo(loginTemplate).build();
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		restTemplateService = new RestTemplateService(restTemplate, restTemplate,
+				new XWikiRequestCoalescer(100, registry), new XWikiRevalidationCache(properties.getCache().getRevalidation(), registry),
+				new XWikiSessionAuthenticator(loginTemplate, properties), properties);
+	}
+
+	private void expectLogin(String sessionId) {
+		HttpHeaders cookies = new HttpHeaders();
+		cookies.setLocation(URI.create("https://wiki.example.org/bin/view/Main/"));
+		cookies.add(HttpHeaders.SET_COOKIE, "JSESSIONID=" + sessionId + "; Path=/; HttpOnly");
+		cookies.add(HttpHeaders.SET_COOKIE, "username=abc; Max-Age=1209600; Path=/");
+		cookies.add(HttpHeaders.SET_COOKIE, "rememberme=; Max-Age=0; Path=/");
+		login.expect(requestTo(LOGIN))
+			.andExpect(method(HttpMethod.POST))
+			.andExpect(content().formDataContains(Map.of("j_username", "user", "j_password", "password")))
+			.andRespond(withStatus(HttpStatus.FOUND).headers(cookies));
+	}
+
+	@Test
+	void sessionSharedBetweenRequests() {
+		expectLogin("s1");
+		for (int i = 0; i < 2; i++) {
+			xwiki.expect(requestTo(PAGE))
+				.andExpect(header(HttpHeaders.COOKIE, "JSESSIONID=s1; username=abc"))
+				.andExpect(headerDoesNotExist(HttpHeaders.AUTHORIZATION))
+				.andRespond(withSuccess("page", MediaType.TEXT_HTML));
+		}
+
+		assertEquals("page", restTemplateService.getWebResponse(PAGE).getBody());
+		assertEquals("page", restTemplateService.getWebResponse(PAGE).getBody());
+		login.verify();
+		xwiki.verify();
+	}
+
+	@Test
+	void rejectedSessionFallsBackToBasic() {
+		expectLogin("s1");
+		xwiki.expect(requestTo(PAGE)).andExpect(header(HttpHeaders.COOKIE, "JSESSIONID=s1; username=abc")).andRespond(withStatus(HttpStatus.UNAUTHORIZED));
+		xwiki.expect(requestTo(PAGE)).andExpect(header(HttpHeaders.AUTHORIZATION, BASIC)).andRespond(withSuccess("page", MediaType.TEXT_HTML));
+
+		assertEquals("page", restTemplateService.getWebResponse(PAGE).getBody());
+		xwiki.verify();
+
+		// new login on next request
+		login.reset();
+		xwiki.reset();
+		expectLogin("s2");
+		xwiki.expect(requestTo(PAGE)).andExpect(header(HttpHeaders.COOKIE, "JSESSIONID=s2; username=abc")).andRespond(withSuccess("page", MediaType.TEXT_HTML));
+
+		assertEquals("page", restTemplateService.getWebResponse(PAGE).getBody());
+		login.verify();
+		xwiki.verify();
+	}
+
+	@Test
+	void basicUsedWhileAnotherThreadLogsIn() throws Exception {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		properties.setUsername("user");
+		properties.setPassword("password");
+		properties.setHttpsOnly(true);
+		RestTemplate loginTemplate = new RestTemplate();
+		MockRestServiceServer slowLogin = MockRestServiceServer.bindTo(loginTemplate).build();
+		CountDownLatch loggingIn = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		HttpHeaders cookies = new HttpHeaders();
+		cookies.add(HttpHeaders.SET_COOKIE, "JSESSIONID=s1; Path=/");
+		slowLogin.expect(requestTo(LOGIN)).andRespond(request -> {
+			loggingIn.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return withStatus(HttpStatus.FOUND).headers(cookies).createResponse(request);
+		});
+		XWikiSessionAuthenticator authenticator = new XWikiSessionAuthenticator(loginTemplate, properties);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<XWikiSessionAuthenticator.Session> renewing = executor.submit(() -> authenticator.authenticate(new HttpHeaders()));
+			assertTrue(loggingIn.await(5, TimeUnit.SECONDS));
+
+			// not blocked by the login in progress
+			HttpHeaders headers = new HttpHeaders();
+			assertNull(authenticator.authenticate(headers));
+			assertEquals(BASIC, headers.getFirst(HttpHeaders.AUTHORIZATION));
+
+			release.countDown();
+			assertEquals("JSESSIONID=s1", renewing.get(5, TimeUnit.SECONDS).cookies());
+		}
+		slowLogin.verify();
+	}
+
+	@Test
+	void failedLoginUsesBasic() {
+		login.expect(requestTo(LOGIN)).andRespond(withSuccess("<form>login</form>", MediaType.TEXT_HTML));
+		xwiki.expect(requestTo(PAGE)).andExpect(header(HttpHeaders.AUTHORIZATION, BASIC)).andRespond(withSuccess("page", MediaType.TEXT_HTML));
+		// no new login before the retry delay
+		xwiki.expect(requestTo(PAGE)).andExpect(header(HttpHeaders.AUTHORIZATION, BASIC)).andRespond(withSuccess("page", MediaType.TEXT_HTML));
+
+		restTemplateService.getWebResponse(PAGE);
+		restTemplateService.getWebResponse(PAGE);
+		login.verify();
+		xwiki.verify();
+	}
+}
@@ -0,0 +1,83 @@
+package org.open4goods.xwiki;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.open4goods.xwiki.authentication.XWikiAuthenticationCache;
+import org.open4goods.xwiki.authentication.XwikiAuthenticationException;
+import org.open4goods.xwiki.authentication.XwikiAuthenticationProvider;
+import org.open4goods.xwiki.config.XWikiCacheProperties.AuthenticationCacheSpec;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiAuthenticationService;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class XwikiAuthenticationProviderTest {
+
+	private final AtomicInteger logins = new AtomicInteger();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private XwikiAuthenticationProvider provider;
+
+	@BeforeEach
+	void setup() throws Exception {
+		XWikiServiceProperties properties = new XWikiServiceProperties();
+		properties.setBaseUrl("https://wiki.example.org");
+		XWikiAuthenticationService authenticationService = new XWikiAuthenticationService(null, null, properties, (RestTemplate) null) {
+			@Override
+			public List<String> login(String userName, String password) throws Exception {
+				logins.incrementAndGet();
+				if (! "secret".equals(password)) {
+					throw new Exception("Unauthorized");
+				}
+				if ("anna".equals(userName)) {
+					// groups could not be resolved
+					return null;
+				}
+				return List.of("xwiki:XWiki.XWikiAdminGroup");
+			}
+		};
+		AuthenticationCacheSpec spec = new AuthenticationCacheSpec();
+		spec.setHashIterations(1000);
+		provider = new XwikiAuthenticationProvider(authenticationService, XWikiAuthenticationCache.create(spec, meterRegistry));
+	}
+
+	@Test
+	void successfulLoginIsCached() {
+		Authentication first = provider.authenticate(new UsernamePasswordAuthenticationToken("john", "secret"));
+		Authentication second = provider.authenticate(new UsernamePasswordAuthenticationToken("john", "secret"));
+
+		assertEquals(1, logins.get());
+		assertEquals(AuthorityUtils.createAuthorityList("XWIKIADMINGROUP", "ROLE_XWIKIADMINGROUP"), second.getAuthorities());
+		assertEquals(first.getAuthorities(), second.getAuthorities());
+		assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "xwiki.authentication").tag("result", "hit").functionCounter().count());
+		assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "xwiki.authentication").tag("result", "miss").functionCounter().count());
+		assertEquals(1, meterRegistry.get("cache.size").tag("cache", "xwiki.authentication").gauge().value());
+	}
+
+	@Test
+	void wrongPasswordIsCheckedByXwiki() {
+		provider.authenticate(new UsernamePasswordAuthenticationToken("john", "secret"));
+
+		assertThrows(XwikiAuthenticationException.class, () -> provider.authenticate(new UsernamePasswordAuthenticationToken("john", "guess")));
+		assertEquals(2, logins.get());
+	}
+
+	@Test
+	void unresolvedGroupsAreNotCached() {
+		provider.authenticate(new UsernamePasswordAuthenticationToken("anna", "secret"));
+		Authentication second = provider.authenticate(new UsernamePasswordAuthenticationToken("anna", "secret"));
+
+		assertEquals(2, logins.get());
+		assertTrue(second.getAuthorities().isEmpty());
+	}
+}
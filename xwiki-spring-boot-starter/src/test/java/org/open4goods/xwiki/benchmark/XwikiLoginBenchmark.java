@@ -0,0 +1,131 @@
+package org.open4goods.xwiki.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.open4goods.xwiki.authentication.XWikiGroupResolver;
+import org.open4goods.xwiki.config.XWikiServiceProperties;
+import org.open4goods.xwiki.services.XWikiAuthenticationService;
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Login latency (p99 in the sample time percentiles) under 16 concurrent logins, against a local http server
+ * serving the current user groups page
+ * 	before: a RestTemplate built per login (RestTemplateBuilder.basicAuthentication)
+ * 	after: one shared template on a pooled client, credentials set per request
+ *
+ * Run with the main method (test classpath), not part of the unit tests
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+// the jdk http server writes headers and body separately: without nodelay, kept-alive connections wait on delayed acks
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class XwikiLoginBenchmark {
+
+	private static final byte[] GROUPS_PAGE = "<html><body><div id=\"xwikicontent\">[xwiki:XWiki.XWikiAllGroup,xwiki:XWiki.Editors]</div></body></html>"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private CloseableHttpClient httpClient;
+	private XWikiServiceProperties properties;
+	private RestTemplateBuilder pooledBuilder;
+	private XwikiJsonReaders jsonReaders;
+	private XWikiAuthenticationService sharedTransport;
+
+	@Setup
+	public void setup() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+		server.createContext("/", exchange -> {
+			try (OutputStream body = exchange.getResponseBody()) {
+				exchange.getResponseHeaders().set("Content-Type", "text/html;charset=UTF-8");
+				exchange.sendResponseHeaders(200, GROUPS_PAGE.length);
+				body.write(GROUPS_PAGE);
+			} catch (IOException e) {
+				// client gone
+			}
+		});
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		properties = new XWikiServiceProperties();
+		properties.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+		properties.setUsername("user");
+		properties.setPassword("password");
+
+		httpClient = HttpClients.custom()
+				.setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create().setMaxConnTotal(64).setMaxConnPerRoute(64).build())
+				.disableCookieManagement()
+				.build();
+		pooledBuilder = new RestTemplateBuilder().requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient));
+		jsonReaders = new XwikiJsonReaders();
+		sharedTransport = new XWikiAuthenticationService(null, null, properties, XWikiGroupResolver.create(properties, pooledBuilder.build(), jsonReaders));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		httpClient.close();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public List<String> templatePerLogin() throws Exception {
+		// previous login path: only a RestTemplate built per call (the resolver around it is a few plain fields)
+		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
+		try {
+			RestTemplate template = new RestTemplateBuilder().requestFactory(() -> requestFactory).basicAuthentication("john", "secret").build();
+			return XWikiGroupResolver.create(properties, template, jsonReaders).resolveGroups("john", "secret");
+		} finally {
+			// a new http client and pool per login, closed with it
+			requestFactory.destroy();
+		}
+	}
+
+	@Benchmark
+	public List<String> sharedTemplate() throws Exception {
+		// one shared template, credentials set on the request
+		return sharedTransport.login("john", "secret");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.include(XwikiLoginBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
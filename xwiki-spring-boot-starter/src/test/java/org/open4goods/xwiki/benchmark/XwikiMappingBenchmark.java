@@ -0,0 +1,73 @@
+package org.open4goods.xwiki.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.open4goods.xwiki.services.XwikiJsonReaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xwiki.rest.model.jaxb.Page;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Per document deserialization cost of a 'Page'
+ * 	before: a new ObjectMapper for each response
+ * 	after: the shared XwikiJsonReaders
+ *
+ * Run with the main method (test classpath), not part of the unit tests
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XwikiMappingBenchmark {
+
+	private String pageJson;
+	private XwikiJsonReaders jsonReaders;
+
+	@Setup
+	public void setup() {
+		jsonReaders = new XwikiJsonReaders();
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			content.append("= Title ").append(i).append(" =\\n\\nSome **bold** paragraph with a [[link>>Blog.Page").append(i).append("]].\\n");
+		}
+		pageJson = "{\"links\":[{\"href\":\"https://wiki.example.org/rest/wikis/xwiki/spaces/Blog/pages/Post\",\"rel\":\"http://www.xwiki.org/rel/page\"},"
+				+ "{\"href\":\"https://wiki.example.org/rest/wikis/xwiki/spaces/Blog/pages/Post/objects\",\"rel\":\"http://www.xwiki.org/rel/objects\"},"
+				+ "{\"href\":\"https://wiki.example.org/rest/wikis/xwiki/spaces/Blog/pages/Post/attachments\",\"rel\":\"http://www.xwiki.org/rel/attachments\"}],"
+				+ "\"id\":\"xwiki:Blog.Post\",\"fullName\":\"Blog.Post\",\"wiki\":\"xwiki\",\"space\":\"Blog\",\"name\":\"Post\",\"title\":\"A blog post\","
+				+ "\"version\":\"12.1\",\"syntax\":\"xwiki/2.1\",\"language\":\"\",\"content\":\"" + content + "\"}";
+	}
+
+	@Benchmark
+	public Page newMapperPerDocument() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		return mapper.readValue(pageJson, new TypeReference<Page>() {});
+	}
+
+	@Benchmark
+	public Page sharedReader() throws Exception {
+		return jsonReaders.reader(Page.class).readValue(pageJson);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.include(XwikiMappingBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}